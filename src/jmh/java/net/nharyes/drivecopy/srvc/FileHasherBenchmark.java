@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileHasherBenchmark {
+
+    // file length in MB
+    @Param({"1", "64", "512"})
+    private int size;
+
+    @Param({"mmap", "buffer"})
+    private String strategy;
+
+    private File file;
+
+    private FileHasher fileHasher;
+
+    @Setup
+    public void setup() throws IOException {
+
+        // random content, kept in the page cache by the warmup
+        file = File.createTempFile("drivecopy-hash", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(size);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+
+            for (int n = 0; n < size; n++) {
+
+                random.nextBytes(block);
+                out.write(block);
+            }
+        }
+
+        PropertiesConfiguration config = new PropertiesConfiguration();
+        config.setProperty("digestStrategy", strategy);
+        fileHasher = new FileHasher(config);
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        file.delete();
+    }
+
+    @Benchmark
+    public String hash() throws IOException {
+
+        return fileHasher.hash(file);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy;
+
+import net.nharyes.drivecopy.biz.bo.FileBO;
+import net.nharyes.drivecopy.biz.wfm.FileStorageWorkflowManager;
+import net.nharyes.drivecopy.srvc.ConcurrencyController;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class BatchRunner {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    public static class Item {
+
+        // file to transfer
+        private FileBO file;
+
+        // workflow action
+        private int action;
+
+        // manifest line
+        private String description;
+
+        public Item(FileBO file, int action, String description) {
+
+            this.file = file;
+            this.action = action;
+            this.description = description;
+        }
+    }
+
+    // File Storage WFM
+    private FileStorageWorkflowManager fileStorageWorkflowManager;
+
+    // concurrency controller
+    private ConcurrencyController concurrencyController;
+
+    public BatchRunner(FileStorageWorkflowManager fileStorageWorkflowManager, ConcurrencyController concurrencyController) {
+
+        this.fileStorageWorkflowManager = fileStorageWorkflowManager;
+        this.concurrencyController = concurrencyController;
+    }
+
+    public int run(final List<Item> items) throws InterruptedException {
+
+        logger.info(String.format("Execute %d transfers with up to %d concurrent jobs", items.size(), concurrencyController.getMaxLimit()));
+
+        // execute the transfers concurrently, within the limit set by the controller
+        final AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrencyController.getMaxLimit());
+        concurrencyController.start();
+        try {
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < items.size(); i++) {
+
+                final int index = i;
+                futures.add(executor.submit(new Runnable() {
+
+                    public void run() {
+
+                        try {
+
+                            concurrencyController.acquire();
+
+                        } catch (InterruptedException ex) {
+
+                            return;
+                        }
+
+                        try {
+
+                            if (!execute(items.get(index), index + 1, items.size()))
+                                failed.incrementAndGet();
+
+                        } finally {
+
+                            concurrencyController.release();
+                        }
+                    }
+                }));
+            }
+
+            // wait for completion
+            for (Future<?> future : futures) {
+
+                try {
+
+                    future.get();
+
+                } catch (ExecutionException ex) {
+
+                    // execute never throws
+                    logger.log(Level.SEVERE, ex.getMessage(), ex);
+                }
+            }
+
+        } finally {
+
+            concurrencyController.stop();
+            executor.shutdownNow();
+        }
+
+        // summary
+        if (failed.get() > 0)
+            logger.severe(String.format("%d of %d transfers failed", failed.get(), items.size()));
+        else
+            logger.info(String.format("All %d transfers completed", items.size()));
+
+        return failed.get();
+    }
+
+    private boolean execute(Item item, int number, int total) {
+
+        try {
+
+            // execute workflow
+            logger.info(String.format("[%d/%d] Started: %s", number, total, item.description));
+            fileStorageWorkflowManager.handleWorkflow(item.file, item.action);
+            logger.info(String.format("[%d/%d] Completed: %s", number, total, item.description));
+            return true;
+
+        } catch (Exception ex) {
+
+            // log the failure and continue with the other transfers
+            logger.log(Level.SEVERE, String.format("[%d/%d] Failed: %s (%s)", number, total, item.description, ex.getMessage()), ex);
+            return false;
+        }
+    }
+}
@@ -16,23 +16,23 @@
 
 package net.nharyes.drivecopy;
 
-import com.google.api.client.googleapis.media.MediaHttpUploader;
-import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
 import com.google.inject.Singleton;
+import net.nharyes.drivecopy.srvc.ResumableUploader;
+import net.nharyes.drivecopy.srvc.UploadProgressListener;
 
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.logging.Logger;
 
 @Singleton
-public class FileUploadProgressListener implements MediaHttpUploaderProgressListener {
+public class FileUploadProgressListener implements UploadProgressListener {
 
     /*
      * Logger
      */
     protected final Logger logger = Logger.getLogger(getClass().getName());
 
-    public void progressChanged(MediaHttpUploader uploader) throws IOException {
+    public void progressChanged(ResumableUploader uploader) throws IOException {
 
         switch (uploader.getUploadState()) {
             case INITIATION_STARTED:
@@ -42,7 +42,10 @@ public class FileUploadProgressListener implements MediaHttpUploaderProgressList
                 logger.fine("Upload started");
                 break;
             case MEDIA_IN_PROGRESS:
-                logger.fine(String.format("Progress: %s", MessageFormat.format("{0,number,#%}", uploader.getProgress())));
+                if (uploader.isLengthKnown())
+                    logger.fine(String.format("Progress: %s", MessageFormat.format("{0,number,#%}", uploader.getProgress())));
+                else
+                    logger.fine(String.format("Progress: %d bytes", uploader.getNumBytesUploaded()));
                 break;
             case MEDIA_COMPLETE:
                 logger.fine("Upload complete");
@@ -18,13 +18,25 @@ package net.nharyes.drivecopy;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import net.nharyes.drivecopy.biz.bo.ArchiveFormat;
 import net.nharyes.drivecopy.biz.bo.FileBO;
+import net.nharyes.drivecopy.biz.wfm.DirectoryCompressorWorkflowManager;
 import net.nharyes.drivecopy.biz.wfm.FileStorageWorkflowManager;
 import net.nharyes.drivecopy.log.SystemOutHandler;
 import net.nharyes.drivecopy.mod.MainModule;
+import net.nharyes.drivecopy.srvc.ConcurrencyController;
+import net.nharyes.drivecopy.srvc.RequestRateLimiter;
+import net.nharyes.drivecopy.srvc.TransferMonitor;
 import org.apache.commons.cli.*;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -47,6 +59,9 @@ public class Main {
     private static final String DESCRIPTION = "Utility to download, replace and upload Google Drive binary files.";
     private static final String JAR_FILE = "drivecopy.jar";
     private static final String CONFIGURATION_FILE = "drivecopy.properties";
+    private static final String BATCH_MODE = "batch";
+    private static final String LEVEL_AUTO = "auto";
+    private static final char[] GLOBAL_OPTIONS = {'C', 'L', 'T', 'v'};
 
     // command line options
     private Options options = new Options();
@@ -91,75 +106,26 @@ public class Main {
             if (line.getArgs().length == 0)
                 throw new ParseException("Missing argument MODE");
 
-            // check mode
+            // check batch mode
+            boolean batch = line.getArgs()[0].equals(BATCH_MODE);
             int action = -1;
-            if (line.getArgs()[0].equals("upload"))
-                action = FileStorageWorkflowManager.ACTION_UPLOAD;
-            else if (line.getArgs()[0].equals("download"))
-                action = FileStorageWorkflowManager.ACTION_DOWNLOAD;
-            else if (line.getArgs()[0].equals("replace"))
-                action = FileStorageWorkflowManager.ACTION_REPLACE;
-            if (action == -1)
-                throw new ParseException("MODE must be 'download', 'replace' or 'upload'.");
-
-            // compose BO
-            FileBO fileBO = new FileBO();
-
-            // check directory
-            char c = 'f';
-            fileBO.setDirectory(false);
-            if (line.hasOption('d')) {
-
-                c = 'd';
-                fileBO.setDirectory(true);
+            FileBO fileBO = null;
+            List<BatchRunner.Item> items = null;
+            int jobs = 1;
+            if (batch) {
+
+                // read the transfers of the manifest
+                items = readManifest(line);
+                jobs = getJobs(line);
+
+            } else {
+
+                // check mode
+                action = getAction(line.getArgs()[0]);
+
+                // compose BO
+                fileBO = composeFileBO(line);
             }
-            fileBO.setFile(new File(line.getOptionValue(c)));
-
-            // entry name
-            if (line.getArgs().length == 2) {
-
-                // check slashes
-                String name = line.getArgs()[1];
-                if (name.startsWith("/"))
-                    name = name.substring(1);
-                if (name.endsWith("/"))
-                    name += "Untitled";
-                fileBO.setName(name);
-
-            } else
-                fileBO.setName(fileBO.getFile().getName());
-
-            // compression level
-            fileBO.setCompressionLevel(Integer.parseInt(line.getOptionValue('l', "0")));
-
-            // check delete after operation
-            fileBO.setDeleteAfter(false);
-            if (line.hasOption('D'))
-                fileBO.setDeleteAfter(true);
-
-            // check skip revision
-            fileBO.setSkipRevision(false);
-            if (line.hasOption('s'))
-                fileBO.setSkipRevision(true);
-
-            // MIME type
-            if (line.hasOption('m'))
-                fileBO.setMimeType(line.getOptionValue('m'));
-
-            // archive
-            fileBO.setArchive(false);
-            if (line.hasOption('a'))
-                fileBO.setArchive(true);
-
-            // check force
-            fileBO.setForce(false);
-            if (line.hasOption('F'))
-                fileBO.setForce(true);
-
-            // check tree
-            fileBO.setCreateFolders(false);
-            if (line.hasOption('t'))
-                fileBO.setCreateFolders(true);
 
             // get Workflow Manager
             Injector injector;
@@ -169,8 +135,18 @@ public class Main {
                 injector = Guice.createInjector(new MainModule(CONFIGURATION_FILE));
             FileStorageWorkflowManager wfm = injector.getInstance(FileStorageWorkflowManager.class);
 
-            // execute workflow
-            wfm.handleWorkflow(fileBO, action);
+            if (batch) {
+
+                // execute the transfers of the manifest
+                ConcurrencyController controller = new ConcurrencyController(injector.getInstance(TransferMonitor.class), injector.getInstance(RequestRateLimiter.class), jobs);
+                if (new BatchRunner(wfm, controller).run(items) > 0)
+                    System.exit(1);
+
+            } else {
+
+                // execute workflow
+                wfm.handleWorkflow(fileBO, action);
+            }
 
         } catch (ParseException ex) {
 
@@ -179,7 +155,7 @@ public class Main {
             System.out.println("Drive Copy version " + VERSION);
             System.out.println("Copyright 2012-2016 Luca Zanconato (luca.zanconato@nharyes.net)");
             System.out.println();
-            formatter.printHelp("java -jar " + JAR_FILE + " [OPTIONS] <MODE> [ENTRY]", DESCRIPTION + "\n", options, "\nMODE can be download/replace/upload.\nENTRY is the path of the entry in Google Drive (i.e. \"Test Folder/Another Folder/file.txt\"); if not set, the name of the local file/directory will be used.");
+            formatter.printHelp("java -jar " + JAR_FILE + " [OPTIONS] <MODE> [ENTRY]", DESCRIPTION + "\n", options, "\nMODE can be batch/download/replace/sync/upload.\nENTRY is the path of the entry in Google Drive (i.e. \"Test Folder/Another Folder/file.txt\"); if not set, the name of the local file/directory will be used.\nIn batch MODE the file option sets a manifest where each line has the options, MODE and ENTRY of a transfer.\nIn sync MODE the directory option sets the local directory mirrored file by file into the remote folder ENTRY.");
             System.out.println();
 
             // log exception
@@ -198,6 +174,219 @@ public class Main {
         }
     }
 
+    private int getAction(String mode) throws ParseException {
+
+        // check mode
+        switch (mode) {
+
+            case "upload":
+                return FileStorageWorkflowManager.ACTION_UPLOAD;
+            case "download":
+                return FileStorageWorkflowManager.ACTION_DOWNLOAD;
+            case "replace":
+                return FileStorageWorkflowManager.ACTION_REPLACE;
+            case "sync":
+                return FileStorageWorkflowManager.ACTION_SYNC;
+            default:
+                throw new ParseException("MODE must be 'batch', 'download', 'replace', 'sync' or 'upload'.");
+        }
+    }
+
+    private int getJobs(CommandLine line) throws ParseException {
+
+        // check jobs
+        try {
+
+            int jobs = Integer.parseInt(line.getOptionValue('j', "1"));
+            if (jobs < 1)
+                throw new NumberFormatException();
+            return jobs;
+
+        } catch (NumberFormatException ex) {
+
+            throw new ParseException("NUM of the jobs option must be a positive number.");
+        }
+    }
+
+    private FileBO composeFileBO(CommandLine line) throws ParseException {
+
+        // compose BO
+        FileBO fileBO = new FileBO();
+
+        // check directory
+        char c = 'f';
+        fileBO.setDirectory(false);
+        if (line.hasOption('d')) {
+
+            c = 'd';
+            fileBO.setDirectory(true);
+        }
+        fileBO.setFile(new File(line.getOptionValue(c)));
+
+        // entry name
+        if (line.getArgs().length == 2) {
+
+            // check slashes
+            String name = line.getArgs()[1];
+            if (name.startsWith("/"))
+                name = name.substring(1);
+            if (name.endsWith("/"))
+                name += "Untitled";
+            fileBO.setName(name);
+
+        } else
+            fileBO.setName(fileBO.getFile().getName());
+
+        // compression level
+        String level = line.getOptionValue('l', "0");
+        if (LEVEL_AUTO.equalsIgnoreCase(level))
+            fileBO.setCompressionLevel(DirectoryCompressorWorkflowManager.LEVEL_AUTO);
+        else {
+
+            // -1 is the default level of the compressor
+            if (!level.matches("-1|[0-9]"))
+                throw new ParseException("LEVEL must be a number from -1 to 9 or 'auto'.");
+            fileBO.setCompressionLevel(Integer.parseInt(level));
+        }
+
+        // archive format
+        fileBO.setFormat(ArchiveFormat.fromName(line.getOptionValue('z', ArchiveFormat.ZIP.getName())));
+        if (fileBO.getFormat() == null)
+            throw new ParseException("FORMAT must be 'zip', 'zstd' or 'lz4'.");
+
+        // check delete after operation
+        fileBO.setDeleteAfter(false);
+        if (line.hasOption('D'))
+            fileBO.setDeleteAfter(true);
+
+        // check skip revision
+        fileBO.setSkipRevision(false);
+        if (line.hasOption('s'))
+            fileBO.setSkipRevision(true);
+
+        // MIME type
+        if (line.hasOption('m'))
+            fileBO.setMimeType(line.getOptionValue('m'));
+
+        // archive
+        fileBO.setArchive(false);
+        if (line.hasOption('a'))
+            fileBO.setArchive(true);
+
+        // check force
+        fileBO.setForce(false);
+        if (line.hasOption('F'))
+            fileBO.setForce(true);
+
+        // check tree
+        fileBO.setCreateFolders(false);
+        if (line.hasOption('t'))
+            fileBO.setCreateFolders(true);
+
+        // check stream
+        fileBO.setStream(false);
+        if (line.hasOption('S'))
+            fileBO.setStream(true);
+
+        // check incremental
+        fileBO.setIncremental(false);
+        if (line.hasOption('I'))
+            fileBO.setIncremental(true);
+
+        // check chunked
+        fileBO.setChunked(false);
+        if (line.hasOption('c'))
+            fileBO.setChunked(true);
+
+        // concurrent transfers
+        fileBO.setJobs(getJobs(line));
+
+        return fileBO;
+    }
+
+    private List<BatchRunner.Item> readManifest(CommandLine line) throws IOException, ParseException {
+
+        // the manifest is set with the file option
+        if (!line.hasOption('f'))
+            throw new ParseException("The manifest of the batch MODE must be set with the file option");
+
+        // parse all the lines before starting any transfer
+        List<BatchRunner.Item> items = new ArrayList<>();
+        CommandLineParser parser = new PosixParser();
+        int number = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(line.getOptionValue('f')), StandardCharsets.UTF_8))) {
+
+            String manifestLine;
+            while ((manifestLine = reader.readLine()) != null) {
+
+                // skip empty lines and comments
+                number++;
+                manifestLine = manifestLine.trim();
+                if (manifestLine.isEmpty() || manifestLine.startsWith("#"))
+                    continue;
+
+                try {
+
+                    // each line has the same syntax of the command line
+                    CommandLine itemLine = parser.parse(options, splitManifestLine(manifestLine));
+                    if (itemLine.getArgs().length == 0)
+                        throw new ParseException("Missing argument MODE");
+
+                    // settings and logging apply to the whole batch
+                    for (char global : GLOBAL_OPTIONS)
+                        if (itemLine.hasOption(global))
+                            throw new ParseException(String.format("Option -%c can be set only on the command line", global));
+                    items.add(new BatchRunner.Item(composeFileBO(itemLine), getAction(itemLine.getArgs()[0]), manifestLine));
+
+                } catch (ParseException ex) {
+
+                    throw new ParseException(String.format("Manifest line %d: %s", number, ex.getMessage()));
+                }
+            }
+        }
+
+        return items;
+    }
+
+    static String[] splitManifestLine(String manifestLine) throws ParseException {
+
+        // split by white spaces, except inside quotes
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = null;
+        char quote = 0;
+        for (char c : manifestLine.toCharArray()) {
+
+            if (quote != 0 && c == quote) {
+
+                quote = 0;
+
+            } else if (quote == 0 && (c == '"' || c == '\'')) {
+
+                quote = c;
+                if (arg == null)
+                    arg = new StringBuilder();
+
+            } else if (quote == 0 && Character.isWhitespace(c)) {
+
+                if (arg != null)
+                    args.add(arg.toString());
+                arg = null;
+
+            } else {
+
+                if (arg == null)
+                    arg = new StringBuilder();
+                arg.append(c);
+            }
+        }
+        if (quote != 0)
+            throw new ParseException("Unterminated quote");
+        if (arg != null)
+            args.add(arg.toString());
+
+        return args.toArray(new String[args.size()]);
+    }
+
     private void composeOptions() {
 
         // file option
@@ -227,10 +416,19 @@ public class Main {
         level.setArgs(1);
         level.setArgName("num");
         level.setOptionalArg(true);
-        level.setType(Integer.class);
-        level.setDescription("where num is the compression level from 0 to 9. Used when uploading/replacing directories. The default value is 0.");
+        level.setType(String.class);
+        level.setDescription("where num is the compression level from 0 (ZIP entries stored without compression) to 9, -1 for the default level of the compressor, or 'auto' to adapt the level of ZIP entries to the upload rate while streaming (without the stream option the default level is used). Used when uploading/replacing directories. The default value is 0.");
         options.addOption(level);
 
+        // archive format option
+        Option format = OptionBuilder.create('z');
+        format.setLongOpt("format");
+        format.setArgs(1);
+        format.setArgName("FORMAT");
+        format.setType(String.class);
+        format.setDescription("where FORMAT is the archive format of directories: 'zip', 'zstd' (tar compressed with Zstandard on all cores) or 'lz4' (tar compressed with LZ4, high compression with level 9). The format is recorded in the MIME type of the entry and detected when downloading. The default value is 'zip'.");
+        options.addOption(format);
+
         // delete option
         Option delete = OptionBuilder.create('D');
         delete.setLongOpt("delete");
@@ -298,6 +496,39 @@ public class Main {
         tree.setDescription("create remote folders tree if one or more remote folders are not found.");
         options.addOption(tree);
 
+        // stream option
+        Option stream = OptionBuilder.create('S');
+        stream.setLongOpt("stream");
+        stream.setOptionalArg(true);
+        stream.setType(Boolean.class);
+        stream.setDescription("compress directories straight into the upload and decompress them straight out of the download, without temporary files.");
+        options.addOption(stream);
+
+        // incremental option
+        Option incremental = OptionBuilder.create('I');
+        incremental.setLongOpt("incremental");
+        incremental.setOptionalArg(true);
+        incremental.setType(Boolean.class);
+        incremental.setDescription("upload only the files of the directory changed since its last snapshot, and apply the changes when downloading it.");
+        options.addOption(incremental);
+
+        // chunked option
+        Option chunked = OptionBuilder.create('c');
+        chunked.setLongOpt("chunked");
+        chunked.setOptionalArg(true);
+        chunked.setType(Boolean.class);
+        chunked.setDescription("back up directories as content-defined chunks stored once on Google Drive, uploading only the chunks not already stored.");
+        options.addOption(chunked);
+
+        // jobs option
+        Option jobs = OptionBuilder.create('j');
+        jobs.setLongOpt("jobs");
+        jobs.setArgs(1);
+        jobs.setArgName("num");
+        jobs.setType(Integer.class);
+        jobs.setDescription("where num is the maximum number of concurrent transfers of the batch and sync MODEs and of chunked directories: the actual number of concurrent transfers of the batch and sync MODEs and of the uploads of chunked directories is adapted to the throughput and to the rate limits of Google Drive. The default value is 1.");
+        options.addOption(jobs);
+
         // terse logging option
         Option terse = OptionBuilder.create('T');
         terse.setLongOpt("terse");
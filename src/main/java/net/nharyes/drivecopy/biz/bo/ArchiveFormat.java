@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.bo;
+
+import java.util.Arrays;
+
+public enum ArchiveFormat {
+
+    ZIP("zip", "application/zip", ".zip", null),
+    TAR_ZSTD("zstd", "application/x-zstd-compressed-tar", ".tar.zst", new byte[]{(byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD}),
+    TAR_LZ4("lz4", "application/x-lz4-compressed-tar", ".tar.lz4", new byte[]{(byte) 0x04, (byte) 0x22, (byte) 0x4D, (byte) 0x18});
+
+    /*
+     * Constants
+     */
+    public static final int MAGIC_LENGTH = 4;
+
+    // name of the option value
+    private final String name;
+
+    private final String mimeType;
+
+    private final String extension;
+
+    // magic number of the compressed stream, null for ZIP archives
+    private final byte[] magic;
+
+    ArchiveFormat(String name, String mimeType, String extension, byte[] magic) {
+
+        this.name = name;
+        this.mimeType = mimeType;
+        this.extension = extension;
+        this.magic = magic;
+    }
+
+    public String getName() {
+
+        return name;
+    }
+
+    public String getMimeType() {
+
+        return mimeType;
+    }
+
+    public String getExtension() {
+
+        return extension;
+    }
+
+    public static ArchiveFormat fromName(String name) {
+
+        for (ArchiveFormat format : values())
+            if (format.name.equalsIgnoreCase(name))
+                return format;
+
+        return null;
+    }
+
+    public static ArchiveFormat fromMagic(byte[] data, int length) {
+
+        // ZIP archives unless a compressed stream is recognised
+        for (ArchiveFormat format : values())
+            if (format.magic != null && length >= format.magic.length && Arrays.equals(format.magic, Arrays.copyOf(data, format.magic.length)))
+                return format;
+
+        return ZIP;
+    }
+
+    public static ArchiveFormat fromEntry(String mimeType, String entryName) {
+
+        // the MIME type set when uploading, otherwise the extension of the entry
+        for (ArchiveFormat format : values())
+            if (format.mimeType.equals(mimeType))
+                return format;
+        for (ArchiveFormat format : values())
+            if (entryName != null && entryName.toLowerCase().endsWith(format.extension))
+                return format;
+
+        return null;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.bo;
+
+import java.io.File;
+
+public class DigestBO implements BusinessObject {
+
+    private File file;
+
+    private String md5Sum;
+
+    // size, modification time and file key, captured before a transfer
+    private String identity;
+
+    private boolean cacheable = true;
+
+    public File getFile() {
+
+        return file;
+    }
+
+    public void setFile(File file) {
+
+        this.file = file;
+    }
+
+    public String getMd5Sum() {
+
+        return md5Sum;
+    }
+
+    public void setMd5Sum(String md5Sum) {
+
+        this.md5Sum = md5Sum;
+    }
+
+    public String getIdentity() {
+
+        return identity;
+    }
+
+    public void setIdentity(String identity) {
+
+        this.identity = identity;
+    }
+
+    public boolean isCacheable() {
+
+        return cacheable;
+    }
+
+    public void setCacheable(boolean cacheable) {
+
+        this.cacheable = cacheable;
+    }
+}
@@ -17,6 +17,8 @@
 package net.nharyes.drivecopy.biz.bo;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,8 +30,21 @@ public class DirectoryBO implements BusinessObject {
 
     private int level;
 
+    // ZIP when compressing, detected when decompressing if not set
+    private ArchiveFormat format;
+
     private List<File> notCompressed = new ArrayList<>();
 
+    private OutputStream outputStream;
+
+    private InputStream inputStream;
+
+    private List<File> files;
+
+    private List<String> deletedEntries;
+
+    private boolean overwrite;
+
     public File getFile() {
 
         return file;
@@ -60,6 +75,16 @@ public class DirectoryBO implements BusinessObject {
         this.destinationDirectory = destinationDirectory;
     }
 
+    public ArchiveFormat getFormat() {
+
+        return format;
+    }
+
+    public void setFormat(ArchiveFormat format) {
+
+        this.format = format;
+    }
+
     public List<File> getNotCompressed() {
 
         return notCompressed;
@@ -69,4 +94,54 @@ public class DirectoryBO implements BusinessObject {
 
         this.notCompressed = notCompressed;
     }
+
+    public OutputStream getOutputStream() {
+
+        return outputStream;
+    }
+
+    public void setOutputStream(OutputStream outputStream) {
+
+        this.outputStream = outputStream;
+    }
+
+    public InputStream getInputStream() {
+
+        return inputStream;
+    }
+
+    public void setInputStream(InputStream inputStream) {
+
+        this.inputStream = inputStream;
+    }
+
+    public List<File> getFiles() {
+
+        return files;
+    }
+
+    public void setFiles(List<File> files) {
+
+        this.files = files;
+    }
+
+    public List<String> getDeletedEntries() {
+
+        return deletedEntries;
+    }
+
+    public void setDeletedEntries(List<String> deletedEntries) {
+
+        this.deletedEntries = deletedEntries;
+    }
+
+    public boolean isOverwrite() {
+
+        return overwrite;
+    }
+
+    public void setOverwrite(boolean overwrite) {
+
+        this.overwrite = overwrite;
+    }
 }
@@ -17,6 +17,8 @@
 package net.nharyes.drivecopy.biz.bo;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public class EntryBO implements BusinessObject {
 
@@ -32,6 +34,12 @@ public class EntryBO implements BusinessObject {
 
     private String md5Sum;
 
+    private String localMd5Sum;
+
+    private InputStream inputStream;
+
+    private OutputStream outputStream;
+
     public String getId() {
 
         return id;
@@ -87,4 +95,34 @@ public class EntryBO implements BusinessObject {
 
         this.md5Sum = md5Sum;
     }
+
+    public String getLocalMd5Sum() {
+
+        return localMd5Sum;
+    }
+
+    public void setLocalMd5Sum(String localMd5Sum) {
+
+        this.localMd5Sum = localMd5Sum;
+    }
+
+    public InputStream getInputStream() {
+
+        return inputStream;
+    }
+
+    public void setInputStream(InputStream inputStream) {
+
+        this.inputStream = inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+
+        return outputStream;
+    }
+
+    public void setOutputStream(OutputStream outputStream) {
+
+        this.outputStream = outputStream;
+    }
 }
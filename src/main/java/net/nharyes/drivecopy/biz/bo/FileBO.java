@@ -26,6 +26,8 @@ public class FileBO implements BusinessObject {
 
     private int compressionLevel;
 
+    private ArchiveFormat format = ArchiveFormat.ZIP;
+
     private boolean isDirectory;
 
     private boolean deleteAfter;
@@ -40,6 +42,14 @@ public class FileBO implements BusinessObject {
 
     private boolean createFolders;
 
+    private boolean stream;
+
+    private int jobs = 1;
+
+    private boolean incremental;
+
+    private boolean chunked;
+
     public File getFile() {
 
         return file;
@@ -70,6 +80,16 @@ public class FileBO implements BusinessObject {
         this.compressionLevel = compressionLevel;
     }
 
+    public ArchiveFormat getFormat() {
+
+        return format;
+    }
+
+    public void setFormat(ArchiveFormat format) {
+
+        this.format = format;
+    }
+
     public boolean isDirectory() {
 
         return isDirectory;
@@ -139,4 +159,44 @@ public class FileBO implements BusinessObject {
 
         this.createFolders = createFolders;
     }
+
+    public boolean isStream() {
+
+        return stream;
+    }
+
+    public void setStream(boolean stream) {
+
+        this.stream = stream;
+    }
+
+    public boolean isIncremental() {
+
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+
+        this.incremental = incremental;
+    }
+
+    public boolean isChunked() {
+
+        return chunked;
+    }
+
+    public void setChunked(boolean chunked) {
+
+        this.chunked = chunked;
+    }
+
+    public int getJobs() {
+
+        return jobs;
+    }
+
+    public void setJobs(int jobs) {
+
+        this.jobs = jobs;
+    }
 }
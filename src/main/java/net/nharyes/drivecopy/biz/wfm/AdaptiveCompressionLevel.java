@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import net.nharyes.drivecopy.srvc.TransferMonitor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class AdaptiveCompressionLevel {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final int MIN_LEVEL = 1;
+    private static final int MAX_LEVEL = 9;
+    private static final int INITIAL_LEVEL = 6;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final double MIN_HEADROOM = 1.2;
+    private static final double MAX_HEADROOM = 3;
+
+    // upload rate
+    private TransferMonitor transferMonitor;
+
+    // number of blocks compressed concurrently
+    private int parallelism;
+
+    private volatile int level = INITIAL_LEVEL;
+
+    // compression measured since the start of the window
+    private long windowStart = System.nanoTime();
+
+    private long outputBytes;
+
+    private long busyNanos;
+
+    public AdaptiveCompressionLevel(TransferMonitor transferMonitor, int parallelism) {
+
+        this.transferMonitor = transferMonitor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public int getLevel() {
+
+        return level;
+    }
+
+    public synchronized void record(long compressedBytes, long nanos) {
+
+        outputBytes += compressedBytes;
+        busyNanos += nanos;
+
+        long now = System.nanoTime();
+        if (now - windowStart < WINDOW_NANOS || busyNanos == 0)
+            return;
+
+        // compressed bytes per second the pool can produce at the current level
+        double capacity = outputBytes * 1e9 / busyNanos * parallelism;
+        double uploadRate = transferMonitor.getUploadRate();
+        logger.finer(String.format("Compression level %d: %.0f bytes/s of compressed data, upload at %.0f bytes/s", level, capacity, uploadRate));
+
+        // without an upload rate the level stays the same
+        if (uploadRate > 0) {
+
+            if (capacity < uploadRate * MIN_HEADROOM && level > MIN_LEVEL) {
+
+                // the network waits for the compressor
+                level--;
+                logger.fine(String.format("Compression level decreased to %d", level));
+
+            } else if (capacity > uploadRate * MAX_HEADROOM && level < MAX_LEVEL) {
+
+                // the compressor waits for the network
+                level++;
+                logger.fine(String.format("Compression level increased to %d", level));
+            }
+        }
+
+        windowStart = now;
+        outputBytes = 0;
+        busyNanos = 0;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import net.nharyes.drivecopy.biz.bo.EntryBO;
+import net.nharyes.drivecopy.biz.bo.FileBO;
+import net.nharyes.drivecopy.biz.bo.TokenBO;
+import net.nharyes.drivecopy.biz.exc.WorkflowManagerException;
+import net.nharyes.drivecopy.srvc.ConcurrencyController;
+import net.nharyes.drivecopy.srvc.DriveSdo;
+import net.nharyes.drivecopy.srvc.RequestRateLimiter;
+import net.nharyes.drivecopy.srvc.TransferMonitor;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import java.io.File;
+
+public abstract class BaseStorageWorkflowManager extends BaseWorkflowManager<FileBO> {
+
+    // Drive SDO
+    protected DriveSdo driveSdo;
+
+    // Token WFM
+    protected TokenWorkflowManager tokenWorkflowManager;
+
+    // transferred bytes
+    protected TransferMonitor transferMonitor;
+
+    // throttling signals
+    protected RequestRateLimiter requestRateLimiter;
+
+    // configuration
+    protected PropertiesConfiguration config;
+
+    protected BaseStorageWorkflowManager(DriveSdo driveSdo, TokenWorkflowManager tokenWorkflowManager, TransferMonitor transferMonitor, RequestRateLimiter requestRateLimiter, PropertiesConfiguration config) {
+
+        this.driveSdo = driveSdo;
+        this.tokenWorkflowManager = tokenWorkflowManager;
+        this.transferMonitor = transferMonitor;
+        this.requestRateLimiter = requestRateLimiter;
+        this.config = config;
+    }
+
+    protected ConcurrencyController createConcurrencyController(int jobs) {
+
+        // the concurrent transfers are adapted to the throughput and to the rate limits
+        return new ConcurrencyController(transferMonitor, requestRateLimiter, jobs);
+    }
+
+    protected TokenBO getToken() throws WorkflowManagerException {
+
+        return tokenWorkflowManager.handleWorkflow(new TokenBO(), TokenWorkflowManager.ACTION_GET);
+    }
+
+    protected String[] extractFolders(String filePath) {
+
+        // extract folders
+        String[] folders = filePath.split("/");
+        if (folders.length > 1) {
+
+            // remove file name from folders
+            String[] nf = new String[folders.length - 1];
+            System.arraycopy(folders, 0, nf, 0, nf.length);
+            folders = nf;
+
+        } else
+            folders = null;
+
+        return folders;
+    }
+
+    protected String extractFileName(String filePath) {
+
+        // return only file name
+        if (filePath.contains("/"))
+            return filePath.substring(filePath.lastIndexOf("/") + 1);
+
+        return filePath;
+    }
+
+    protected File getConfigDirectory() {
+
+        // the local state is kept next to the configuration file
+        File configFile = config.getFile();
+
+        return configFile != null ? configFile.getAbsoluteFile().getParentFile() : null;
+    }
+
+    protected void checkDigest(String sDigest, EntryBO entry) throws WorkflowManagerException {
+
+        logger.finer(String.format("digest of the file: %s", sDigest));
+        logger.finer(String.format("digest of the entry: %s", entry.getMd5Sum()));
+
+        // compare digests
+        if (!sDigest.equalsIgnoreCase(entry.getMd5Sum()))
+            throw new WorkflowManagerException("wrong digest!");
+        logger.fine("Digests comparison OK");
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class ChunkIndex {
+
+    /*
+     * Constants
+     */
+    private static final String INDEX_DIRECTORY = "drivecopy.chunks";
+    private static final String VERIFIED_PREFIX = "# verified ";
+
+    // index file
+    private File file;
+
+    // SHA-256 -> ID of the chunk on Drive
+    private final Map<String, String> chunks = new HashMap<>();
+
+    // chunks being uploaded
+    private final Set<String> pending = new HashSet<>();
+
+    // last time the index was rebuilt from the chunks on Drive (milliseconds)
+    private long verified;
+
+    private ChunkIndex(File file) {
+
+        this.file = file;
+    }
+
+    public static ChunkIndex open(File configDirectory, String folderId) throws IOException {
+
+        // one index for each chunks folder
+        File directory = new File(configDirectory != null ? configDirectory : new File("."), INDEX_DIRECTORY);
+        ChunkIndex index = new ChunkIndex(new File(directory, URLEncoder.encode(folderId, "UTF-8") + ".index"));
+
+        // load chunks
+        if (index.file.exists()) {
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index.file), StandardCharsets.UTF_8))) {
+
+                String line;
+                while ((line = reader.readLine()) != null) {
+
+                    if (line.startsWith(VERIFIED_PREFIX)) {
+
+                        index.verified = Long.parseLong(line.substring(VERIFIED_PREFIX.length()));
+                        continue;
+                    }
+
+                    String[] fields = line.split(" ");
+                    if (fields.length == 2)
+                        index.chunks.put(fields[0], fields[1]);
+                }
+            }
+        }
+
+        return index;
+    }
+
+    public boolean exists() {
+
+        return file.exists();
+    }
+
+    public synchronized String getId(String hash) {
+
+        return chunks.get(hash);
+    }
+
+    public synchronized boolean reserve(String hash) {
+
+        // true if the chunk must be uploaded by the caller
+        return !chunks.containsKey(hash) && pending.add(hash);
+    }
+
+    public synchronized void put(String hash, String id) {
+
+        pending.remove(hash);
+        chunks.put(hash, id);
+    }
+
+    public synchronized void release(String hash) {
+
+        pending.remove(hash);
+    }
+
+    public synchronized boolean isVerifiedWithin(long ttl) {
+
+        return System.currentTimeMillis() - verified < ttl;
+    }
+
+    public synchronized void clear() {
+
+        chunks.clear();
+    }
+
+    public synchronized void setVerified() {
+
+        verified = System.currentTimeMillis();
+    }
+
+    public synchronized int size() {
+
+        return chunks.size();
+    }
+
+    public synchronized void save() throws IOException {
+
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+            throw new IOException(String.format("Unable to create directory '%s'", file.getParentFile().getAbsolutePath()));
+
+        // write to a temporary file then replace the index
+        File temp = new File(file.getAbsolutePath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+
+            writer.write(String.format("%s%d%n", VERIFIED_PREFIX, verified));
+            for (Map.Entry<String, String> chunk : chunks.entrySet())
+                writer.write(String.format("%s %s%n", chunk.getKey(), chunk.getValue()));
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
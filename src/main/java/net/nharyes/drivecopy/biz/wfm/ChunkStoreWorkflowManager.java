@@ -0,0 +1,29 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import net.nharyes.drivecopy.biz.bo.FileBO;
+
+public interface ChunkStoreWorkflowManager extends WorkflowManager<FileBO> {
+
+    /*
+     * Workflow actions
+     */
+    int ACTION_UPLOAD = 0;
+    int ACTION_DOWNLOAD = 1;
+    int ACTION_REPLACE = 2;
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import net.nharyes.drivecopy.biz.bo.EntryBO;
+import net.nharyes.drivecopy.biz.bo.FileBO;
+import net.nharyes.drivecopy.biz.bo.TokenBO;
+import net.nharyes.drivecopy.biz.exc.WorkflowManagerException;
+import net.nharyes.drivecopy.srvc.ConcurrencyController;
+import net.nharyes.drivecopy.srvc.DriveSdo;
+import net.nharyes.drivecopy.srvc.RequestRateLimiter;
+import net.nharyes.drivecopy.srvc.TransferMonitor;
+import net.nharyes.drivecopy.srvc.exc.ItemNotFoundException;
+import net.nharyes.drivecopy.srvc.exc.SdoException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Singleton
+public class ChunkStoreWorkflowManagerImpl extends BaseStorageWorkflowManager implements ChunkStoreWorkflowManager {
+
+    /*
+     * Constants
+     */
+    private static final String MANIFEST_HEADER = "drivecopy-chunks 1";
+    private static final String MANIFEST_MIME_TYPE = "text/plain";
+    private static final String CHUNK_MIME_TYPE = "application/octet-stream";
+    private static final String CHUNKS_SUFFIX = ".chunks";
+    private static final String INDEX_TTL_KEY = "chunkIndexTtl";
+    private static final long DEFAULT_INDEX_TTL = 24 * 60 * 60;
+
+    @Inject
+    public ChunkStoreWorkflowManagerImpl(DriveSdo driveSdo, TokenWorkflowManager tokenWorkflowManager, TransferMonitor transferMonitor, RequestRateLimiter requestRateLimiter, PropertiesConfiguration config) {
+
+        super(driveSdo, tokenWorkflowManager, transferMonitor, requestRateLimiter, config);
+    }
+
+    public FileBO handleWorkflow(FileBO businessObject, int action) throws WorkflowManagerException {
+
+        switch (action) {
+
+            case ACTION_UPLOAD:
+                return backup(businessObject, true);
+            case ACTION_DOWNLOAD:
+                return restore(businessObject);
+            case ACTION_REPLACE:
+                return backup(businessObject, false);
+            default:
+                throw new WorkflowManagerException("Action not found");
+        }
+    }
+
+    private static String sha256(byte[] data) throws IOException {
+
+        try {
+
+            return String.format("%064x", new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(data)));
+
+        } catch (NoSuchAlgorithmException ex) {
+
+            // re-throw exception
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    private void loadRemoteChunks(TokenBO token, String folderId, ChunkIndex index) throws SdoException {
+
+        // rebuild the index from the chunks already on Drive
+        logger.fine("Index the chunks already stored");
+        for (EntryBO entry : driveSdo.listEntries(token, folderId))
+            if (entry.getName().length() == 64)
+                index.put(entry.getName(), entry.getId());
+        index.setVerified();
+        logger.finer(String.format("%d chunks found", index.size()));
+    }
+
+    private FileBO backup(FileBO file, boolean upload) throws WorkflowManagerException {
+
+        try {
+
+            // get token
+            TokenBO token = getToken();
+
+            // log action
+            logger.info(String.format("Back up '%s' to chunked entry '%s'", file.getFile().getAbsolutePath(), file.getName()));
+
+            // check directory
+            if (!file.getFile().isDirectory())
+                throw new WorkflowManagerException(String.format("'%s' is not a directory", file.getFile().getAbsolutePath()));
+
+            // check ignored options
+            if (file.isDeleteAfter())
+                logger.warning("Delete option ignored");
+            if (file.isStream())
+                logger.warning("Stream option ignored");
+            if (file.isIncremental())
+                logger.warning("Incremental option ignored: only new chunks are uploaded");
+
+            // process folders and get parent ID
+            String parentId = driveSdo.getLastFolderId(token, extractFolders(file.getName()), DriveSdo.DRIVE_ROOT_FOLDER_ID, file.isCreateFolders());
+
+            // search the manifest entry
+            String baseName = extractFileName(file.getName());
+            EntryBO manifest = null;
+            try {
+
+                manifest = driveSdo.searchEntry(token, baseName, parentId);
+                if (upload)
+                    throw new SdoException(String.format("Entry with name '%s' already exists", file.getName()));
+
+            } catch (ItemNotFoundException ex) {
+
+                // check force option
+                if (!upload && !file.isForce())
+                    throw ex;
+                upload = true;
+            }
+
+            // open the chunks folder and its local index
+            String folderId = driveSdo.getLastFolderId(token, new String[]{baseName + CHUNKS_SUFFIX}, parentId, true);
+            ChunkIndex index = ChunkIndex.open(getConfigDirectory(), folderId);
+            if (!index.exists() || !index.isVerifiedWithin(config.getLong(INDEX_TTL_KEY, DEFAULT_INDEX_TTL) * 1000)) {
+
+                // chunks deleted from Drive must not be referenced by the new manifest
+                index.clear();
+                loadRemoteChunks(token, folderId, index);
+            }
+
+            // split the files and upload the new chunks in parallel, within the limit set by the controller
+            ByteArrayOutputStream manifestData = new ByteArrayOutputStream();
+            ConcurrencyController controller = createConcurrencyController(file.getJobs());
+            ExecutorService executor = Executors.newFixedThreadPool(controller.getMaxLimit());
+            ChunkUploads uploads = new ChunkUploads(token, folderId, index, controller, executor, new Semaphore(controller.getMaxLimit() * 2));
+            controller.start();
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(manifestData, StandardCharsets.UTF_8))) {
+
+                writer.write(MANIFEST_HEADER + "\n");
+                backupDirectory(file.getFile(), file.getFile().getAbsolutePath().length() + 1, writer, new Chunker(), uploads);
+                writer.flush();
+
+                // wait for completion
+                for (Future<?> future : uploads.futures)
+                    future.get();
+
+            } finally {
+
+                controller.stop();
+                executor.shutdownNow();
+
+                // remember the chunks stored, even if the backup failed
+                index.save();
+            }
+            logger.fine(String.format("%d chunks, %d uploaded (%d bytes)", uploads.chunks, uploads.futures.size(), uploads.bytes.get()));
+
+            // upload/replace the manifest
+            if (upload) {
+
+                manifest = new EntryBO();
+                manifest.setName(baseName);
+            }
+            manifest.setInputStream(new ByteArrayInputStream(manifestData.toByteArray()));
+            manifest.setMimeType(MANIFEST_MIME_TYPE);
+            manifest.setSkipRevision(!upload && file.isSkipRevision());
+            manifest = upload ? driveSdo.uploadEntry(token, manifest, parentId) : driveSdo.updateEntry(token, manifest);
+            checkDigest(manifest.getLocalMd5Sum(), manifest);
+
+            // return backed up directory
+            FileBO fBO = new FileBO();
+            fBO.setFile(file.getFile());
+            fBO.setName(file.getName());
+            return fBO;
+
+        } catch (SdoException | IOException | InterruptedException | ExecutionException ex) {
+
+            // re-throw exception
+            throw new WorkflowManagerException(ex.getMessage(), ex);
+        }
+    }
+
+    private class ChunkUploads {
+
+        private TokenBO token;
+
+        private String folderId;
+
+        private ChunkIndex index;
+
+        private ConcurrencyController controller;
+
+        private ExecutorService executor;
+
+        // bounds the chunks held in memory
+        private Semaphore inFlight;
+
+        private List<Future<?>> futures = new ArrayList<>();
+
+        private int chunks;
+
+        private AtomicLong bytes = new AtomicLong();
+
+        ChunkUploads(TokenBO token, String folderId, ChunkIndex index, ConcurrencyController controller, ExecutorService executor, Semaphore inFlight) {
+
+            this.token = token;
+            this.folderId = folderId;
+            this.index = index;
+            this.controller = controller;
+            this.executor = executor;
+            this.inFlight = inFlight;
+        }
+
+        void add(final String hash, final byte[] data) throws InterruptedException {
+
+            chunks++;
+
+            // check if the chunk is already stored
+            if (!index.reserve(hash))
+                return;
+
+            // upload the chunk in background
+            inFlight.acquire();
+            futures.add(executor.submit(new Callable<Void>() {
+
+                public Void call() throws Exception {
+
+                    try {
+
+                        EntryBO entry = new EntryBO();
+                        entry.setName(hash);
+                        entry.setMimeType(CHUNK_MIME_TYPE);
+                        entry.setInputStream(new ByteArrayInputStream(data));
+                        controller.acquire();
+                        try {
+
+                            entry = driveSdo.uploadEntry(token, entry, folderId);
+
+                        } finally {
+
+                            controller.release();
+                        }
+                        checkDigest(entry.getLocalMd5Sum(), entry);
+                        index.put(hash, entry.getId());
+                        bytes.addAndGet(data.length);
+                        return null;
+
+                    } finally {
+
+                        index.release(hash);
+                        inFlight.release();
+                    }
+                }
+            }));
+        }
+    }
+
+    private void backupDirectory(File directory, int prefixLength, Writer writer, Chunker chunker, ChunkUploads uploads) throws IOException, InterruptedException {
+
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException(String.format("Unable to list directory '%s'", directory.getAbsolutePath()));
+        Arrays.sort(files);
+
+        for (File f : files) {
+
+            String path = URLEncoder.encode(f.getAbsolutePath().substring(prefixLength).replace(File.separatorChar, '/'), "UTF-8");
+            if (f.isDirectory()) {
+
+                // directories are recorded to restore the empty ones too
+                writer.write(String.format("D %s%n", path));
+                backupDirectory(f, prefixLength, writer, chunker, uploads);
+
+            } else {
+
+                // split the file into content-defined chunks
+                long lastModified = f.lastModified();
+                long size = 0;
+                StringBuilder chunkLines = new StringBuilder();
+                try (InputStream in = new FileInputStream(f)) {
+
+                    // the files are split one at a time with the same buffer
+                    chunker.reset(in);
+                    byte[] chunk;
+                    while ((chunk = chunker.next()) != null) {
+
+                        String hash = sha256(chunk);
+                        chunkLines.append(String.format("C %s %d%n", hash, chunk.length));
+                        size += chunk.length;
+                        uploads.add(hash, chunk);
+                    }
+                }
+
+                // the size is the one actually read
+                writer.write(String.format("F %s %d %d%n", path, size, lastModified));
+                writer.write(chunkLines.toString());
+            }
+        }
+    }
+
+    private FileBO restore(final FileBO file) throws WorkflowManagerException {
+
+        try {
+
+            // get token
+            final TokenBO token = getToken();
+
+            // log action
+            logger.info(String.format("Restore chunked entry '%s' to '%s'", file.getName(), file.getFile().getAbsolutePath()));
+
+            // check destination
+            if (file.getFile().exists())
+                throw new WorkflowManagerException(String.format("'%s' already exists", file.getFile().getAbsolutePath()));
+
+            // process folders and get parent ID
+            String parentId = driveSdo.getLastFolderId(token, extractFolders(file.getName()), DriveSdo.DRIVE_ROOT_FOLDER_ID, false);
+
+            // download the manifest
+            String baseName = extractFileName(file.getName());
+            EntryBO manifest = driveSdo.searchEntry(token, baseName, parentId);
+            ByteArrayOutputStream manifestData = new ByteArrayOutputStream();
+            manifest.setOutputStream(manifestData);
+            manifest = driveSdo.downloadEntry(token, manifest);
+            checkDigest(manifest.getLocalMd5Sum(), manifest);
+
+            // open the chunks folder and its local index
+            String folderId = driveSdo.getLastFolderId(token, new String[]{baseName + CHUNKS_SUFFIX}, parentId, false);
+            ChunkIndex index = ChunkIndex.open(getConfigDirectory(), folderId);
+            final RemoteChunks chunks = new RemoteChunks(token, folderId, index);
+            if (!index.exists())
+                chunks.relist();
+
+            // restore the files in parallel
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, file.getJobs()));
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(manifestData.toByteArray()), StandardCharsets.UTF_8))) {
+
+                // check header
+                if (!MANIFEST_HEADER.equals(reader.readLine()))
+                    throw new WorkflowManagerException(String.format("Entry '%s' is not a chunked backup", file.getName()));
+
+                if (!file.getFile().mkdirs())
+                    throw new IOException(String.format("Unable to create directory '%s'", file.getFile().getAbsolutePath()));
+
+                List<Future<?>> futures = new ArrayList<>();
+                String line = reader.readLine();
+                while (line != null) {
+
+                    String[] fields = line.split(" ");
+                    final File f = new File(file.getFile(), URLDecoder.decode(fields[1], "UTF-8"));
+                    if ("D".equals(fields[0])) {
+
+                        if (!f.isDirectory() && !f.mkdirs())
+                            throw new IOException(String.format("Unable to create directory '%s'", f.getAbsolutePath()));
+                        line = reader.readLine();
+                        continue;
+                    }
+
+                    // collect the chunks of the file
+                    final long size = Long.parseLong(fields[2]);
+                    final long lastModified = Long.parseLong(fields[3]);
+                    final List<String> hashes = new ArrayList<>();
+                    while ((line = reader.readLine()) != null && line.startsWith("C ")) {
+
+                        String hash = line.split(" ")[1];
+                        if (chunks.getId(hash) == null)
+                            throw new WorkflowManagerException(String.format("Chunk %s of '%s' not found", hash, f.getAbsolutePath()));
+                        hashes.add(hash);
+                    }
+
+                    // restore the file in background
+                    futures.add(executor.submit(new Callable<Void>() {
+
+                        public Void call() throws Exception {
+
+                            restoreFile(token, chunks, hashes, f, size, lastModified);
+                            return null;
+                        }
+                    }));
+                }
+
+                // wait for completion
+                for (Future<?> future : futures)
+                    future.get();
+                logger.fine(String.format("%d files restored", futures.size()));
+
+            } finally {
+
+                executor.shutdownNow();
+            }
+            index.save();
+
+            // return restored directory
+            FileBO fBO = new FileBO();
+            fBO.setFile(file.getFile());
+            fBO.setName(file.getName());
+            return fBO;
+
+        } catch (SdoException | IOException | InterruptedException | ExecutionException ex) {
+
+            // re-throw exception
+            throw new WorkflowManagerException(ex.getMessage(), ex);
+        }
+    }
+
+    // IDs of the stored chunks, listed again from Drive at most once
+    private class RemoteChunks {
+
+        private TokenBO token;
+
+        private String folderId;
+
+        private ChunkIndex index;
+
+        private boolean listed;
+
+        RemoteChunks(TokenBO token, String folderId, ChunkIndex index) {
+
+            this.token = token;
+            this.folderId = folderId;
+            this.index = index;
+        }
+
+        String getId(String hash) throws SdoException {
+
+            // in case the local index is not up to date
+            if (index.getId(hash) == null)
+                relist();
+
+            return index.getId(hash);
+        }
+
+        synchronized void relist() throws SdoException {
+
+            if (listed)
+                return;
+            loadRemoteChunks(token, folderId, index);
+            listed = true;
+        }
+    }
+
+    private void restoreFile(TokenBO token, RemoteChunks chunks, List<String> hashes, File f, long size, long lastModified) throws SdoException, IOException, WorkflowManagerException {
+
+        logger.finer(String.format("Restore file '%s'", f.getAbsolutePath()));
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f))) {
+
+            for (String hash : hashes) {
+
+                // download the chunk
+                String id = chunks.getId(hash);
+                byte[] chunk;
+                try {
+
+                    chunk = downloadChunk(token, id);
+
+                } catch (ItemNotFoundException ex) {
+
+                    // the chunk may have been stored again after the local index was saved
+                    chunks.relist();
+                    String storedId = chunks.getId(hash);
+                    if (storedId == null || storedId.equals(id))
+                        throw ex;
+                    chunk = downloadChunk(token, storedId);
+                }
+
+                // check its content
+                if (!hash.equals(sha256(chunk)))
+                    throw new WorkflowManagerException(String.format("wrong content of chunk %s", hash));
+                out.write(chunk);
+            }
+        }
+
+        // check size and restore modification time
+        if (f.length() != size)
+            throw new WorkflowManagerException(String.format("wrong size of '%s'", f.getAbsolutePath()));
+        if (!f.setLastModified(lastModified))
+            logger.finer(String.format("Unable to set the modification time of '%s'", f.getAbsolutePath()));
+    }
+
+    private byte[] downloadChunk(TokenBO token, String id) throws SdoException {
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        EntryBO entry = new EntryBO();
+        entry.setId(id);
+        entry.setOutputStream(data);
+        driveSdo.downloadEntry(token, entry);
+
+        return data.toByteArray();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Chunker {
+
+    /*
+     * Constants
+     */
+    public static final int MIN_SIZE = 512 * 1024;
+    public static final int MAX_SIZE = 4 * 1024 * 1024;
+    private static final long BOUNDARY_MASK = 0xFFFFF00000000000L;
+    private static final long[] GEAR = new long[256];
+
+    static {
+
+        // the table must never change, or the boundaries of the stored chunks would move
+        Random random = new Random(0x6472697665636f70L);
+        for (int i = 0; i < GEAR.length; i++)
+            GEAR[i] = random.nextLong();
+    }
+
+    // source stream
+    private InputStream in;
+
+    // bytes read and not yet returned
+    private byte[] buffer = new byte[MAX_SIZE];
+    private int count;
+
+    private boolean eof;
+
+    public Chunker() {
+
+    }
+
+    public Chunker(InputStream in) {
+
+        reset(in);
+    }
+
+    public void reset(InputStream in) {
+
+        // the buffer is kept for the next stream
+        this.in = in;
+        count = 0;
+        eof = false;
+    }
+
+    public byte[] next() throws IOException {
+
+        // fill the buffer
+        while (!eof && count < buffer.length) {
+
+            int read = in.read(buffer, count, buffer.length - count);
+            if (read == -1)
+                eof = true;
+            else
+                count += read;
+        }
+        if (count == 0)
+            return null;
+
+        // the boundary is where the rolling hash of the last 64 bytes matches the mask (1 MB on average)
+        int cut = count;
+        long hash = 0;
+        for (int i = MIN_SIZE; i < count; i++) {
+
+            hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+            if ((hash & BOUNDARY_MASK) == 0) {
+
+                cut = i + 1;
+                break;
+            }
+        }
+
+        // return the chunk and keep the remaining bytes
+        byte[] chunk = Arrays.copyOf(buffer, cut);
+        System.arraycopy(buffer, cut, buffer, 0, count - cut);
+        count -= cut;
+
+        return chunk;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+@Singleton
+public class DigestCache {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final String CACHE_FILE = "drivecopy.digests";
+    private static final String ENABLED_KEY = "digestCache";
+
+    // cache file
+    private File file;
+
+    // whether the cache is used
+    private boolean enabled;
+
+    // local file path -> "<MD5> <identity>"
+    private Properties entries = new Properties();
+
+    // whether the entries changed since the last save
+    private boolean dirty;
+
+    @Inject
+    public DigestCache(PropertiesConfiguration config) {
+
+        // cache file stored next to the configuration file
+        File configFile = config.getFile();
+        File directory = configFile != null ? configFile.getAbsoluteFile().getParentFile() : null;
+        file = new File(directory != null ? directory : new File("."), CACHE_FILE);
+        enabled = config.getBoolean(ENABLED_KEY, true);
+
+        // load entries
+        if (enabled && file.exists()) {
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+
+                entries.load(in);
+
+            } catch (IOException ex) {
+
+                // start with an empty cache
+                logger.log(Level.WARNING, String.format("Unable to read digest cache '%s'", file.getAbsolutePath()), ex);
+                entries.clear();
+            }
+
+            // prune the entries of the files not existing anymore, once per process
+            for (String path : entries.stringPropertyNames()) {
+
+                if (!new File(path).isFile()) {
+
+                    entries.remove(path);
+                    dirty = true;
+                }
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+
+        return enabled;
+    }
+
+    public static String getIdentity(File f) throws IOException {
+
+        // size, modification time and file key (i.e. device and inode)
+        BasicFileAttributes attributes = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+
+        return String.format("%d %d %s", attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey != null ? fileKey.toString().replace(' ', '_') : "-");
+    }
+
+    public synchronized String getMd5Sum(File f, String identity) {
+
+        String value = entries.getProperty(f.getAbsolutePath());
+        if (value == null)
+            return null;
+
+        // the digest is valid only for the same file identity
+        int index = value.indexOf(' ');
+        if (!value.substring(index + 1).equals(identity))
+            return null;
+
+        return value.substring(0, index);
+    }
+
+    public synchronized void putMd5Sum(File f, String identity, String md5Sum) {
+
+        if (!enabled)
+            return;
+
+        // saved in bulk by flush
+        entries.setProperty(f.getAbsolutePath(), String.format("%s %s", md5Sum, identity));
+        dirty = true;
+    }
+
+    public synchronized void flush() {
+
+        if (!enabled || !dirty)
+            return;
+
+        try {
+
+            // write to a temporary file then replace the cache
+            File temp = new File(file.getAbsolutePath() + ".tmp");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+
+                entries.store(out, "DriveCopy local digests cache");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+
+        } catch (IOException ex) {
+
+            // the cache is only an optimisation
+            logger.log(Level.WARNING, String.format("Unable to write digest cache '%s'", file.getAbsolutePath()), ex);
+        }
+    }
+}
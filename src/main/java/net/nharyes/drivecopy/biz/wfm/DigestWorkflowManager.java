@@ -0,0 +1,30 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import net.nharyes.drivecopy.biz.bo.DigestBO;
+
+public interface DigestWorkflowManager extends WorkflowManager<DigestBO> {
+
+    /*
+     * Workflow actions
+     */
+    int ACTION_DIGEST = 0;
+    int ACTION_STORE = 1;
+    int ACTION_IDENTIFY = 2;
+    int ACTION_FLUSH = 3;
+}
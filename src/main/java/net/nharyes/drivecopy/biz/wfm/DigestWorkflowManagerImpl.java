@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import net.nharyes.drivecopy.biz.bo.DigestBO;
+import net.nharyes.drivecopy.biz.exc.WorkflowManagerException;
+import net.nharyes.drivecopy.srvc.FileHasher;
+
+import java.io.IOException;
+
+@Singleton
+public class DigestWorkflowManagerImpl extends BaseWorkflowManager<DigestBO> implements DigestWorkflowManager {
+
+    // digest cache
+    private DigestCache digestCache;
+
+    // local files hasher
+    private FileHasher fileHasher;
+
+    @Inject
+    public DigestWorkflowManagerImpl(DigestCache digestCache, FileHasher fileHasher) {
+
+        this.digestCache = digestCache;
+        this.fileHasher = fileHasher;
+    }
+
+    public DigestBO handleWorkflow(DigestBO businessObject, int action) throws WorkflowManagerException {
+
+        switch (action) {
+
+            case ACTION_DIGEST:
+                return digest(businessObject);
+            case ACTION_STORE:
+                return store(businessObject);
+            case ACTION_IDENTIFY:
+                return identify(businessObject);
+            case ACTION_FLUSH:
+                digestCache.flush();
+                return businessObject;
+            default:
+                throw new WorkflowManagerException("Action not found");
+        }
+    }
+
+    private DigestBO digest(DigestBO digest) throws WorkflowManagerException {
+
+        try {
+
+            // check cached digest
+            String identity = DigestCache.getIdentity(digest.getFile());
+            if (digestCache.isEnabled() && digest.isCacheable()) {
+
+                String md5Sum = digestCache.getMd5Sum(digest.getFile(), identity);
+                if (md5Sum != null) {
+
+                    logger.finer("digest of the file found in cache");
+                    digest.setMd5Sum(md5Sum);
+                    return digest;
+                }
+            }
+
+            // calculate MD5 of the file
+            logger.finer("calculate the MD5 summary of the file...");
+            digest.setMd5Sum(fileHasher.hash(digest.getFile()));
+
+            // cache the digest only if the file didn't change in the meantime
+            if (digest.isCacheable() && identity.equals(DigestCache.getIdentity(digest.getFile())))
+                digestCache.putMd5Sum(digest.getFile(), identity, digest.getMd5Sum());
+
+            return digest;
+
+        } catch (IOException ex) {
+
+            // re-throw exception
+            throw new WorkflowManagerException(ex.getMessage(), ex);
+        }
+    }
+
+    private DigestBO identify(DigestBO digest) throws WorkflowManagerException {
+
+        try {
+
+            digest.setIdentity(DigestCache.getIdentity(digest.getFile()));
+            return digest;
+
+        } catch (IOException ex) {
+
+            // re-throw exception
+            throw new WorkflowManagerException(ex.getMessage(), ex);
+        }
+    }
+
+    private DigestBO store(DigestBO digest) throws WorkflowManagerException {
+
+        try {
+
+            // digest computed during a transfer, valid only if the file didn't change in the meantime
+            String identity = DigestCache.getIdentity(digest.getFile());
+            if (digest.getIdentity() != null && !digest.getIdentity().equals(identity)) {
+
+                logger.fine(String.format("File '%s' changed during the transfer: digest not cached", digest.getFile().getAbsolutePath()));
+                return digest;
+            }
+            digestCache.putMd5Sum(digest.getFile(), identity, digest.getMd5Sum());
+            return digest;
+
+        } catch (IOException ex) {
+
+            // re-throw exception
+            throw new WorkflowManagerException(ex.getMessage(), ex);
+        }
+    }
+}
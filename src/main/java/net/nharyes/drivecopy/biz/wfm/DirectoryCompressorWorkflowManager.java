@@ -25,4 +25,9 @@ public interface DirectoryCompressorWorkflowManager extends WorkflowManager<Dire
      */
     int ACTION_COMPRESS = 0;
     int ACTION_DECOMPRESS = 1;
+
+    /*
+     * Compression level adapted to the upload rate
+     */
+    int LEVEL_AUTO = Integer.MIN_VALUE;
 }
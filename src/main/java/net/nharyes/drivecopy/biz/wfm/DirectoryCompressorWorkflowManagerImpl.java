@@ -16,15 +16,30 @@
 
 package net.nharyes.drivecopy.biz.wfm;
 
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+import net.nharyes.drivecopy.biz.bo.ArchiveFormat;
 import net.nharyes.drivecopy.biz.bo.DirectoryBO;
 import net.nharyes.drivecopy.biz.exc.WorkflowManagerException;
+import net.nharyes.drivecopy.srvc.TransferMonitor;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 @Singleton
 public class DirectoryCompressorWorkflowManagerImpl extends BaseWorkflowManager<DirectoryBO> implements DirectoryCompressorWorkflowManager {
@@ -33,6 +48,18 @@ public class DirectoryCompressorWorkflowManagerImpl extends BaseWorkflowManager<
      * Constants
      */
     private final int BUFFER = 2048;
+    private static final int TAR_BUFFER = 64 * 1024;
+    private static final int ZSTD_DEFAULT_LEVEL = 3;
+    private static final String DELETED_ENTRIES = ".drivecopy-deleted";
+
+    // upload rate
+    private TransferMonitor transferMonitor;
+
+    @Inject
+    public DirectoryCompressorWorkflowManagerImpl(TransferMonitor transferMonitor) {
+
+        this.transferMonitor = transferMonitor;
+    }
 
     public DirectoryBO handleWorkflow(DirectoryBO businessObject, int action) throws WorkflowManagerException {
 
@@ -54,26 +81,60 @@ public class DirectoryCompressorWorkflowManagerImpl extends BaseWorkflowManager<
             // log action
             logger.finer("Compress directory");
 
-            // create temporary file
-            File tempFile = File.createTempFile("drivecopy" + System.currentTimeMillis(), "temp");
-            logger.finer(String.format("Created temporary file '%s'", tempFile.getAbsolutePath()));
+            // in case create temporary file
+            File tempFile = null;
+            OutputStream out = directory.getOutputStream();
+            if (out == null) {
+
+                tempFile = File.createTempFile("drivecopy" + System.currentTimeMillis(), "temp");
+                logger.finer(String.format("Created temporary file '%s'", tempFile.getAbsolutePath()));
+                out = new FileOutputStream(tempFile);
+            }
+
+            // the automatic level follows an upload running during the compression
+            int level = directory.getLevel();
+            if (level == LEVEL_AUTO && tempFile != null) {
 
-            // create output stream
-            BufferedOutputStream bout = new BufferedOutputStream(new FileOutputStream(tempFile));
-            ZipOutputStream zout = new ZipOutputStream(bout);
-            zout.setLevel(directory.getLevel());
+                logger.warning("auto level ignored when not streaming: default level used");
+                level = Deflater.DEFAULT_COMPRESSION;
+            }
 
             // process file and subdirectories
             DirectoryBO dirBO = new DirectoryBO();
+            Map<String, File> entries = new LinkedHashMap<>();
             String filePath = directory.getFile().getAbsolutePath();
-            processFile(new File(filePath), zout, filePath, dirBO.getNotCompressed());
+            if (directory.getFiles() != null) {
+
+                // compress only the selected files
+                for (File f : directory.getFiles())
+                    processFile(f, entries, filePath, dirBO.getNotCompressed());
+
+            } else
+                processFile(new File(filePath), entries, filePath, dirBO.getNotCompressed());
+
+            // in case record the deleted entries
+            byte[] deletedEntries = null;
+            if (directory.getDeletedEntries() != null && !directory.getDeletedEntries().isEmpty()) {
+
+                StringBuilder sb = new StringBuilder();
+                for (String deletedEntry : directory.getDeletedEntries())
+                    sb.append(deletedEntry).append("\n");
+                deletedEntries = sb.toString().getBytes(StandardCharsets.UTF_8);
+            }
 
-            // close output stream
-            zout.close();
+            // compress entries and close output stream
+            ArchiveFormat format = directory.getFormat() != null ? directory.getFormat() : ArchiveFormat.ZIP;
+            logger.finer(String.format("Archive format: %s", format.getName()));
+            if (format == ArchiveFormat.ZIP)
+                writeZip(out, level, entries, deletedEntries);
+            else
+                writeTar(openCompressor(format, out, level), entries, deletedEntries);
+            out.close();
 
             // return created file
             dirBO.setFile(tempFile);
-            dirBO.setLevel(directory.getLevel());
+            dirBO.setLevel(level);
+            dirBO.setFormat(format);
             return dirBO;
 
         } catch (IOException ex) {
@@ -90,73 +151,239 @@ public class DirectoryCompressorWorkflowManagerImpl extends BaseWorkflowManager<
             // log action
             logger.finer("Decompress directory");
 
-            // output stream
-            FileInputStream fin = new FileInputStream(directory.getFile());
-            ZipInputStream zis = new ZipInputStream(new BufferedInputStream(fin));
+            // input stream
+            InputStream in = directory.getInputStream() != null ? directory.getInputStream() : new FileInputStream(directory.getFile());
+            BufferedInputStream bin = new BufferedInputStream(in);
+
+            // the first bytes must match the format of the entry, if known
+            ArchiveFormat format = detectFormat(bin);
+            if (directory.getFormat() != null && directory.getFormat() != format)
+                throw new IOException(String.format("The entry is marked as '%s' archive but its content is '%s'", directory.getFormat().getName(), format.getName()));
+            logger.finer(String.format("Archive format: %s", format.getName()));
 
-            // create directory if not present
-            if (!directory.getDestinationDirectory().mkdirs())
+            // create directory if not present (it can exist only when applying changes)
+            if (!(directory.isOverwrite() && directory.getDestinationDirectory().isDirectory()) && !directory.getDestinationDirectory().mkdirs())
                 throw new IOException(String.format("Unable to create directories structure '%s'", directory.getDestinationDirectory().getAbsolutePath()));
 
-            // process zip entries
-            int count;
+            // process archive entries
             byte data[] = new byte[BUFFER];
-            ZipEntry entry;
-            BufferedOutputStream dest;
-            while ((entry = zis.getNextEntry()) != null) {
+            InputStream archive;
+            if (format == ArchiveFormat.ZIP) {
+
+                ZipInputStream zis = new ZipInputStream(bin);
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null)
+                    extractEntry(directory, entry.getName(), zis, data);
+                archive = zis;
+
+            } else {
+
+                TarArchiveInputStream tis = new TarArchiveInputStream(openDecompressor(format, bin));
+                TarArchiveEntry entry;
+                while ((entry = tis.getNextTarEntry()) != null)
+                    if (!entry.isDirectory())
+                        extractEntry(directory, entry.getName().replace('/', File.separatorChar), tis, data);
+                archive = tis;
+            }
 
-                // status
-                logger.fine(String.format("Decompressing '%s'", entry.getName().substring(entry.getName().lastIndexOf(File.separator) + 1)));
+            // in case consume the rest of the stream (i.e. the central directory)
+            if (directory.getInputStream() != null) {
 
-                // in case create subdirectories for file
-                String f = directory.getDestinationDirectory().getAbsolutePath() + File.separator + entry.getName();
-                File fl = new File(f);
-                if (entry.getName().contains(File.separator)) {
+                while (in.read(data, 0, BUFFER) != -1) {
 
-                    File fDir = new File(f.substring(0, f.lastIndexOf(File.separator)));
-                    if (!fDir.mkdirs())
-                        throw new IOException(String.format("Unable to create directories structure '%s'", fDir.getAbsolutePath()));
+                    data[0] = 0;
                 }
+            }
+            archive.close();
+
+            // return the same BO
+            return directory;
+
+        } catch (IOException ex) {
+
+            // re-throw exception
+            throw new WorkflowManagerException(ex.getMessage(), ex);
+        }
+    }
+
+    private void extractEntry(DirectoryBO directory, String entryName, InputStream in, byte[] data) throws IOException {
+
+        // status
+        logger.fine(String.format("Decompressing '%s'", entryName.substring(entryName.lastIndexOf(File.separator) + 1)));
+
+        // in case create subdirectories for file
+        String f = directory.getDestinationDirectory().getAbsolutePath() + File.separator + entryName;
+        File fl = new File(f);
+        if (entryName.contains(File.separator)) {
 
-                // check if file can be written
-                if (!fl.createNewFile()) {
+            File fDir = new File(f.substring(0, f.lastIndexOf(File.separator)));
+            if (!fDir.isDirectory() && !fDir.mkdirs())
+                throw new IOException(String.format("Unable to create directories structure '%s'", fDir.getAbsolutePath()));
+        }
+
+        // in case delete the entries recorded as deleted
+        if (directory.isOverwrite() && entryName.equals(DELETED_ENTRIES)) {
 
-                    // notify UI
-                    logger.warning(String.format("Unable to decompress '%s'", fl.getAbsolutePath()));
+            deleteEntries(directory.getDestinationDirectory(), in);
+            return;
+        }
 
-                    // read entry from stream
-                    while (zis.read(data, 0, BUFFER) != -1) {
+        // in case replace the existing file
+        if (directory.isOverwrite() && fl.isFile() && !fl.delete())
+            logger.warning(String.format("Unable to replace '%s'", fl.getAbsolutePath()));
 
-                        data[0] = 0;
-                    }
+        // check if file can be written
+        if (!fl.createNewFile()) {
 
-                } else {
+            // notify UI
+            logger.warning(String.format("Unable to decompress '%s'", fl.getAbsolutePath()));
 
-                    // write the file to the disk
-                    FileOutputStream fos = new FileOutputStream(fl);
-                    dest = new BufferedOutputStream(fos, BUFFER);
-                    while ((count = zis.read(data, 0, BUFFER)) != -1) {
+            // read entry from stream
+            while (in.read(data, 0, BUFFER) != -1) {
 
-                        dest.write(data, 0, count);
-                    }
-                    dest.flush();
-                    dest.close();
-                    logger.finer("file data written");
-                }
+                data[0] = 0;
             }
-            zis.close();
 
-            // return the same BO
-            return directory;
+        } else {
 
-        } catch (IOException ex) {
+            // write the file to the disk
+            int count;
+            FileOutputStream fos = new FileOutputStream(fl);
+            BufferedOutputStream dest = new BufferedOutputStream(fos, BUFFER);
+            while ((count = in.read(data, 0, BUFFER)) != -1) {
 
-            // re-throw exception
-            throw new WorkflowManagerException(ex.getMessage(), ex);
+                dest.write(data, 0, count);
+            }
+            dest.flush();
+            dest.close();
+            logger.finer("file data written");
         }
     }
 
-    private void processFile(File f, ZipOutputStream zout, String path, List<File> notCompressed) throws IOException {
+    private static ArchiveFormat detectFormat(BufferedInputStream in) throws IOException {
+
+        // magic number of the compressed stream
+        in.mark(ArchiveFormat.MAGIC_LENGTH);
+        byte[] magic = new byte[ArchiveFormat.MAGIC_LENGTH];
+        int count = 0;
+        int read;
+        while (count < magic.length && (read = in.read(magic, count, magic.length - count)) != -1)
+            count += read;
+        in.reset();
+
+        return ArchiveFormat.fromMagic(magic, count);
+    }
+
+    private static OutputStream openCompressor(ArchiveFormat format, OutputStream out, int level) throws IOException {
+
+        switch (format) {
+
+            case TAR_ZSTD:
+
+                // compressed by all the cores (the automatic and default levels are the default one of Zstandard)
+                ZstdOutputStream zstd = new ZstdOutputStream(new BufferedOutputStream(out, TAR_BUFFER), level < 0 ? ZSTD_DEFAULT_LEVEL : Math.max(1, level));
+                zstd.setChecksum(true);
+                zstd.setWorkers(Runtime.getRuntime().availableProcessors());
+                return zstd;
+
+            case TAR_LZ4:
+
+                // level 9 trades speed for ratio
+                LZ4Factory factory = LZ4Factory.fastestInstance();
+                return new LZ4FrameOutputStream(new BufferedOutputStream(out, TAR_BUFFER), LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB, -1L,
+                        level >= 9 ? factory.highCompressor(level) : factory.fastCompressor(), XXHashFactory.fastestInstance().hash32(),
+                        LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE, LZ4FrameOutputStream.FLG.Bits.CONTENT_CHECKSUM);
+
+            default:
+                throw new IOException(String.format("Unsupported archive format '%s'", format.getName()));
+        }
+    }
+
+    private static InputStream openDecompressor(ArchiveFormat format, InputStream in) throws IOException {
+
+        switch (format) {
+
+            case TAR_ZSTD:
+                return new ZstdInputStream(in);
+            case TAR_LZ4:
+                return new LZ4FrameInputStream(in);
+            default:
+                throw new IOException(String.format("Unsupported archive format '%s'", format.getName()));
+        }
+    }
+
+    private void writeZip(OutputStream out, int level, Map<String, File> entries, byte[] deletedEntries) throws IOException {
+
+        // entries are deflated in parallel in blocks of at most 1 MB, or stored when incompressible
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ParallelZipWriter zout;
+        if (level == LEVEL_AUTO)
+            zout = new ParallelZipWriter(out, new AdaptiveCompressionLevel(transferMonitor, parallelism), parallelism);
+        else
+            zout = new ParallelZipWriter(out, level, parallelism);
+        for (Map.Entry<String, File> entry : entries.entrySet())
+            zout.addFile(entry.getKey(), entry.getValue());
+        if (deletedEntries != null)
+            zout.addData(DELETED_ENTRIES, deletedEntries);
+        zout.finish();
+    }
+
+    private void writeTar(OutputStream out, Map<String, File> entries, byte[] deletedEntries) throws IOException {
+
+        // long names and sizes use the POSIX extensions
+        TarArchiveOutputStream tout = new TarArchiveOutputStream(out);
+        tout.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tout.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+        byte data[] = new byte[TAR_BUFFER];
+        for (Map.Entry<String, File> entry : entries.entrySet()) {
+
+            // status
+            logger.fine(String.format("Compressing '%s'", entry.getValue().getName()));
+
+            // create entry
+            tout.putArchiveEntry(new TarArchiveEntry(entry.getValue(), entry.getKey()));
+            try (InputStream in = new FileInputStream(entry.getValue())) {
+
+                int count;
+                while ((count = in.read(data)) != -1)
+                    tout.write(data, 0, count);
+            }
+            tout.closeArchiveEntry();
+        }
+
+        // in case record the deleted entries
+        if (deletedEntries != null) {
+
+            TarArchiveEntry entry = new TarArchiveEntry(DELETED_ENTRIES);
+            entry.setSize(deletedEntries.length);
+            tout.putArchiveEntry(entry);
+            tout.write(deletedEntries);
+            tout.closeArchiveEntry();
+        }
+
+        // close the compressed stream too
+        tout.close();
+    }
+
+    private void deleteEntries(File destinationDirectory, InputStream in) throws IOException {
+
+        // one entry per line (the stream must not be closed)
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String entryName;
+        while ((entryName = reader.readLine()) != null) {
+
+            if (entryName.isEmpty())
+                continue;
+
+            File fl = new File(destinationDirectory, entryName);
+            logger.fine(String.format("Deleting '%s'", entryName));
+            if (fl.isFile() && !fl.delete())
+                logger.warning(String.format("Unable to delete '%s'", fl.getAbsolutePath()));
+        }
+    }
+
+    private void processFile(File f, Map<String, File> entries, String path, List<File> notCompressed) {
 
         // check if file can be read
         if (!f.canRead()) {
@@ -170,8 +397,6 @@ public class DirectoryCompressorWorkflowManagerImpl extends BaseWorkflowManager<
             return;
         }
 
-        byte data[] = new byte[BUFFER];
-
         // check if file is directory
         if (f.isDirectory()) {
 
@@ -179,29 +404,15 @@ public class DirectoryCompressorWorkflowManagerImpl extends BaseWorkflowManager<
             File[] files = f.listFiles();
             assert files != null;
             for (File fl : files)
-                processFile(fl, zout, path, notCompressed);
+                processFile(fl, entries, path, notCompressed);
 
         } else {
 
             // extract entry name
             String entryName = f.getAbsolutePath().substring(f.getAbsolutePath().indexOf(path) + path.length() + 1);
 
-            // status
-            logger.fine(String.format("Compressing '%s'", f.getName()));
-
-            // create input stream
-            BufferedInputStream bin = new BufferedInputStream(new FileInputStream(f), BUFFER);
-
-            // create entry
-            ZipEntry entry = new ZipEntry(entryName);
-            zout.putNextEntry(entry);
-            int count;
-            while ((count = bin.read(data, 0, BUFFER)) != -1) {
-
-                zout.write(data, 0, count);
-            }
-            bin.close();
-            logger.finer("ZIP entry created");
+            // add entry
+            entries.put(entryName, f);
         }
     }
 }
@@ -26,4 +26,5 @@ public interface FileStorageWorkflowManager extends WorkflowManager<FileBO> {
     int ACTION_UPLOAD = 0;
     int ACTION_DOWNLOAD = 1;
     int ACTION_REPLACE = 2;
+    int ACTION_SYNC = 3;
 }
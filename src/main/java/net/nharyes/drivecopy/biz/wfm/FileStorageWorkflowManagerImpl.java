@@ -16,103 +16,123 @@
 
 package net.nharyes.drivecopy.biz.wfm;
 
-import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import net.nharyes.drivecopy.biz.bo.ArchiveFormat;
+import net.nharyes.drivecopy.biz.bo.DigestBO;
 import net.nharyes.drivecopy.biz.bo.DirectoryBO;
 import net.nharyes.drivecopy.biz.bo.EntryBO;
 import net.nharyes.drivecopy.biz.bo.FileBO;
 import net.nharyes.drivecopy.biz.bo.TokenBO;
 import net.nharyes.drivecopy.biz.exc.WorkflowManagerException;
+import net.nharyes.drivecopy.srvc.ConcurrencyController;
 import net.nharyes.drivecopy.srvc.DriveSdo;
+import net.nharyes.drivecopy.srvc.RequestRateLimiter;
+import net.nharyes.drivecopy.srvc.TransferMonitor;
 import net.nharyes.drivecopy.srvc.exc.ItemNotFoundException;
 import net.nharyes.drivecopy.srvc.exc.SdoException;
+import org.apache.commons.configuration.PropertiesConfiguration;
 
-import java.io.File;
-import java.io.IOException;
-import java.math.BigInteger;
-import java.util.List;
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
 
 @Singleton
-public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO> implements FileStorageWorkflowManager {
+public class FileStorageWorkflowManagerImpl extends BaseStorageWorkflowManager implements FileStorageWorkflowManager {
 
-    // Drive SDO
-    private DriveSdo driveSdo;
+    /*
+     * Constants
+     */
+    private static final int PIPE_BUFFER = 8 * 1024 * 1024;
+    private static final String DELTA_SUFFIX = ".delta-";
 
     // Directory Compressor WFM
     private DirectoryCompressorWorkflowManager directoryCompressorWorkflowManager;
 
-    // Token WFM
-    private TokenWorkflowManager tokenWorkflowManager;
+    // Digest WFM
+    private DigestWorkflowManager digestWorkflowManager;
+
+    // Chunk Store WFM
+    private ChunkStoreWorkflowManager chunkStoreWorkflowManager;
 
     @Inject
-    public FileStorageWorkflowManagerImpl(DriveSdo driveSdo, DirectoryCompressorWorkflowManager directoryCompressorWorkflowManager, TokenWorkflowManager tokenWorkflowManager) {
+    public FileStorageWorkflowManagerImpl(DriveSdo driveSdo, DirectoryCompressorWorkflowManager directoryCompressorWorkflowManager, TokenWorkflowManager tokenWorkflowManager, DigestWorkflowManager digestWorkflowManager, ChunkStoreWorkflowManager chunkStoreWorkflowManager, TransferMonitor transferMonitor, RequestRateLimiter requestRateLimiter, PropertiesConfiguration config) {
 
-        this.driveSdo = driveSdo;
+        super(driveSdo, tokenWorkflowManager, transferMonitor, requestRateLimiter, config);
         this.directoryCompressorWorkflowManager = directoryCompressorWorkflowManager;
-        this.tokenWorkflowManager = tokenWorkflowManager;
+        this.digestWorkflowManager = digestWorkflowManager;
+        this.chunkStoreWorkflowManager = chunkStoreWorkflowManager;
     }
 
     public FileBO handleWorkflow(FileBO businessObject, int action) throws WorkflowManagerException {
 
-        switch (action) {
+        try {
+
+            switch (action) {
+
+                case ACTION_UPLOAD:
+                    return upload(businessObject);
+                case ACTION_DOWNLOAD:
+                    return download(businessObject);
+                case ACTION_REPLACE:
+                    return replace(businessObject);
+                case ACTION_SYNC:
+                    return sync(businessObject);
+                default:
+                    throw new WorkflowManagerException("Action not found");
+            }
+
+        } finally {
 
-            case ACTION_UPLOAD:
-                return upload(businessObject);
-            case ACTION_DOWNLOAD:
-                return download(businessObject);
-            case ACTION_REPLACE:
-                return replace(businessObject);
-            default:
-                throw new WorkflowManagerException("Action not found");
+            // save the digests cached by the workflow
+            digestWorkflowManager.handleWorkflow(new DigestBO(), DigestWorkflowManager.ACTION_FLUSH);
         }
     }
 
-    private TokenBO getToken() throws WorkflowManagerException {
+    private void checkMD5(EntryBO entry) throws WorkflowManagerException {
 
-        return tokenWorkflowManager.handleWorkflow(new TokenBO(), TokenWorkflowManager.ACTION_GET);
+        checkMD5(entry, true);
     }
 
-    private String[] extractFolders(String filePath) {
+    private void checkMD5(EntryBO entry, boolean cacheable) throws WorkflowManagerException {
 
-        // extract folders
-        String[] folders = filePath.split("/");
-        if (folders.length > 1) {
+        // get MD5 of the local file
+        DigestBO digest = new DigestBO();
+        digest.setFile(entry.getFile());
+        digest.setCacheable(cacheable);
+        digest = digestWorkflowManager.handleWorkflow(digest, DigestWorkflowManager.ACTION_DIGEST);
+        checkDigest(digest.getMd5Sum(), entry);
+    }
 
-            // remove file name from folders
-            String[] nf = new String[folders.length - 1];
-            System.arraycopy(folders, 0, nf, 0, nf.length);
-            folders = nf;
+    private String computeMD5(File f) throws WorkflowManagerException {
 
-        } else
-            folders = null;
+        DigestBO digest = new DigestBO();
+        digest.setFile(f);
 
-        return folders;
+        return digestWorkflowManager.handleWorkflow(digest, DigestWorkflowManager.ACTION_DIGEST).getMd5Sum();
     }
 
-    private String extractFileName(String filePath) {
+    private DigestBO identify(File f) throws WorkflowManagerException {
 
-        // return only file name
-        if (filePath.contains("/"))
-            return filePath.substring(filePath.lastIndexOf("/") + 1);
+        // identity of the file before a transfer
+        DigestBO digest = new DigestBO();
+        digest.setFile(f);
 
-        return filePath;
+        return digestWorkflowManager.handleWorkflow(digest, DigestWorkflowManager.ACTION_IDENTIFY);
     }
 
-    private void checkMD5(EntryBO entry) throws IOException, WorkflowManagerException {
+    private void storeMD5(EntryBO entry, DigestBO digest) throws WorkflowManagerException {
 
-        // calculate MD5 of the local file/directory
-        logger.finer("calculate the MD5 summary of the file...");
-        byte[] digest = Files.hash(entry.getFile(), Hashing.md5()).asBytes();
-        String sDigest = new BigInteger(1, digest).toString(16);
-        logger.finer(String.format("digest of the file: %s", sDigest));
-        logger.finer(String.format("digest of the entry: %s", entry.getMd5Sum()));
+        // remember the digest computed during the transfer
+        if (digest == null) {
 
-        // compare digests
-        if (!sDigest.equalsIgnoreCase(entry.getMd5Sum()))
-            throw new WorkflowManagerException("wrong digest!");
-        logger.fine("Digests comparison OK");
+            digest = new DigestBO();
+            digest.setFile(entry.getFile());
+        }
+        digest.setMd5Sum(entry.getLocalMd5Sum());
+        digestWorkflowManager.handleWorkflow(digest, DigestWorkflowManager.ACTION_STORE);
     }
 
     private FileBO upsert(FileBO file, boolean upload) throws WorkflowManagerException {
@@ -187,20 +207,36 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
 
             // check directory
             DirectoryBO dirBO = new DirectoryBO();
-            if (file.isDirectory()) {
+            if (file.isDirectory() && file.isStream()) {
+
+                // the directory will be compressed during the upload
+                dirBO.setFile(file.getFile());
+                dirBO.setLevel(file.getCompressionLevel());
+                dirBO.setFormat(file.getFormat());
+
+                // the MIME type of a replaced entry must follow the archive format
+                if (file.getMimeType() == null)
+                    entry.setMimeType(file.getFormat().getMimeType());
+
+                // check archive option
+                if (file.isArchive())
+                    logger.warning("archive option ignored when streaming");
+
+            } else if (file.isDirectory()) {
 
                 // compress directory
-                logger.fine(String.format("Compress directory with level '%d'", file.getCompressionLevel()));
+                logger.fine(String.format("Compress directory with level '%s'", getLevelName(file)));
                 dirBO.setFile(file.getFile());
                 dirBO.setLevel(file.getCompressionLevel());
+                dirBO.setFormat(file.getFormat());
                 dirBO = directoryCompressorWorkflowManager.handleWorkflow(dirBO, DirectoryCompressorWorkflowManager.ACTION_COMPRESS);
 
                 // replace file
                 entry.setFile(dirBO.getFile());
 
-                // in case set ZIP MIME type
-                if (entry.getMimeType() == null)
-                    entry.setMimeType("application/zip");
+                // the MIME type of a replaced entry must follow the archive format
+                if (file.getMimeType() == null)
+                    entry.setMimeType(file.getFormat().getMimeType());
 
             } else {
 
@@ -211,15 +247,16 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
 
             // in case check existing file MD5 summary
             boolean proceedWithReplacement = true;
-            if (!upload && file.isArchive()) {
+            if (!upload && file.isArchive() && !file.isStream()) {
 
                 try {
 
-                    checkMD5(entry);
+                    // the digest of a temporary archive is not cached
+                    checkMD5(entry, !file.isDirectory());
                     proceedWithReplacement = false;
                     logger.fine("The remote entry already has the same content of the local file.");
 
-                } catch (WorkflowManagerException | IOException ex) {
+                } catch (WorkflowManagerException ex) {
 
                     /* wrong digest ignored: the file will be downloaded */
                 }
@@ -229,17 +266,47 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
             if (upload || proceedWithReplacement) {
 
                 logger.finer(String.format("MIME type of the entry: %s", entry.getMimeType()));
-                if (upload)
-                    entry = driveSdo.uploadEntry(token, entry, parentId);
-                else
-                    entry = driveSdo.updateEntry(token, entry);
 
-                // check MD5 of the replaced entry
-                checkMD5(entry);
+                // in case compress the directory straight into the upload
+                FutureTask<DirectoryBO> compression = null;
+                if (file.isDirectory() && file.isStream()) {
+
+                    logger.fine(String.format("Stream directory compressed with level '%s'", getLevelName(file)));
+                    PipedInputStream pin = new PipedInputStream(PIPE_BUFFER);
+                    dirBO.setOutputStream(new PipedOutputStream(pin));
+                    compression = startCompression(dirBO);
+                    entry.setInputStream(new CompressionInputStream(pin, compression));
+                }
+
+                // identity of the file before the transfer
+                DigestBO before = !file.isDirectory() ? identify(entry.getFile()) : null;
+
+                try {
+
+                    if (upload)
+                        entry = driveSdo.uploadEntry(token, entry, parentId);
+                    else
+                        entry = driveSdo.updateEntry(token, entry);
+
+                } finally {
+
+                    // stop the compression in case of errors
+                    if (compression != null)
+                        dirBO.getOutputStream().close();
+                }
+
+                // wait for the compression
+                if (compression != null)
+                    dirBO = getDirectory(compression);
+
+                // check MD5 of the uploaded bytes
+                checkDigest(entry.getLocalMd5Sum(), entry);
+                if (!file.isDirectory())
+                    storeMD5(entry, before);
             }
 
             // in case delete temporary file
-            if (file.isDirectory()) {
+            if (file.isDirectory() && !file.isStream()) {
 
                 logger.finer("Delete temporary file");
                 if (!entry.getFile().delete())
@@ -266,13 +333,134 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
         }
     }
 
+    private static String getLevelName(FileBO file) {
+
+        return file.getCompressionLevel() == DirectoryCompressorWorkflowManager.LEVEL_AUTO ? "auto" : String.valueOf(file.getCompressionLevel());
+    }
+
+    private FutureTask<DirectoryBO> startCompression(final DirectoryBO dirBO) {
+
+        FutureTask<DirectoryBO> compression = new FutureTask<>(new Callable<DirectoryBO>() {
+
+            public DirectoryBO call() throws Exception {
+
+                try {
+
+                    return directoryCompressorWorkflowManager.handleWorkflow(dirBO, DirectoryCompressorWorkflowManager.ACTION_COMPRESS);
+
+                } finally {
+
+                    // signal the end of the archive
+                    dirBO.getOutputStream().close();
+                }
+            }
+        });
+
+        // compress in background
+        startInBackground(compression, "drivecopy-compressor");
+
+        return compression;
+    }
+
+    private FutureTask<DirectoryBO> startDecompression(final DirectoryBO dirBO) {
+
+        FutureTask<DirectoryBO> decompression = new FutureTask<>(new Callable<DirectoryBO>() {
+
+            public DirectoryBO call() throws Exception {
+
+                try {
+
+                    return directoryCompressorWorkflowManager.handleWorkflow(dirBO, DirectoryCompressorWorkflowManager.ACTION_DECOMPRESS);
+
+                } finally {
+
+                    // unblock the download in case of errors
+                    dirBO.getInputStream().close();
+                }
+            }
+        });
+
+        // decompress in background
+        startInBackground(decompression, "drivecopy-decompressor");
+
+        return decompression;
+    }
+
+    private static void startInBackground(FutureTask<DirectoryBO> task, String name) {
+
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static DirectoryBO getDirectory(FutureTask<DirectoryBO> task) throws IOException {
+
+        try {
+
+            return task.get();
+
+        } catch (InterruptedException ex) {
+
+            throw new IOException(ex.getMessage(), ex);
+
+        } catch (ExecutionException ex) {
+
+            throw new IOException(ex.getCause().getMessage(), ex.getCause());
+        }
+    }
+
+    private static class CompressionInputStream extends FilterInputStream {
+
+        // background compression
+        private FutureTask<DirectoryBO> compression;
+
+        CompressionInputStream(InputStream in, FutureTask<DirectoryBO> compression) {
+
+            super(in);
+            this.compression = compression;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            int b = super.read();
+            if (b == -1)
+                getDirectory(compression);
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            // a failed compression must not complete the upload
+            int count = super.read(b, off, len);
+            if (count == -1)
+                getDirectory(compression);
+
+            return count;
+        }
+    }
+
     private FileBO upload(FileBO file) throws WorkflowManagerException {
 
+        // check chunked option
+        if (file.isDirectory() && file.isChunked())
+            return chunkStoreWorkflowManager.handleWorkflow(file, ChunkStoreWorkflowManager.ACTION_UPLOAD);
+
+        // check incremental option
+        if (file.isDirectory() && file.isIncremental())
+            return snapshot(file, true);
+
         return upsert(file, true);
     }
 
     private FileBO download(FileBO file) throws WorkflowManagerException {
 
+        // check chunked option
+        if (file.isDirectory() && file.isChunked())
+            return chunkStoreWorkflowManager.handleWorkflow(file, ChunkStoreWorkflowManager.ACTION_DOWNLOAD);
+
         try {
 
             // get token
@@ -305,7 +493,53 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
 
             // check directory
             boolean downloadFile = true;
-            if (file.isDirectory()) {
+            if (file.isDirectory() && file.isStream()) {
+
+                logger.fine("Decompress entry during the download");
+
+                // decompress the data while it is downloaded
+                DirectoryBO dirBO = new DirectoryBO();
+                dirBO.setInputStream(new PipedInputStream(PIPE_BUFFER));
+                dirBO.setDestinationDirectory(file.getFile());
+                dirBO.setFormat(ArchiveFormat.fromEntry(entry.getMimeType(), entry.getName()));
+                PipedOutputStream pout = new PipedOutputStream((PipedInputStream) dirBO.getInputStream());
+                FutureTask<DirectoryBO> decompression = startDecompression(dirBO);
+
+                // download entry
+                entry.setOutputStream(pout);
+                try {
+
+                    entry = driveSdo.downloadEntry(token, entry);
+
+                } catch (SdoException ex) {
+
+                    // a failed decompression interrupts the download
+                    if (decompression.isDone())
+                        getDirectory(decompression);
+
+                    throw ex;
+
+                } finally {
+
+                    // signal the end of the archive
+                    pout.close();
+                }
+
+                // wait for the decompression and check MD5 of the downloaded entry
+                dirBO = getDirectory(decompression);
+                checkDigest(entry.getLocalMd5Sum(), entry);
+
+                // in case apply the incremental changes
+                if (file.isIncremental())
+                    applyDeltas(token, file, parentId);
+
+                // return decompressed directory
+                FileBO fBO = new FileBO();
+                fBO.setFile(dirBO.getDestinationDirectory());
+                fBO.setName(entry.getName());
+                return fBO;
+
+            } else if (file.isDirectory()) {
 
                 // create temporary file
                 File tempFile = File.createTempFile("drivecopy" + System.currentTimeMillis(), "temp");
@@ -328,7 +562,7 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
                         downloadFile = false;
                         logger.fine("The local file already has the same content of the remote entry.");
 
-                    } catch (WorkflowManagerException | IOException ex) {
+                    } catch (WorkflowManagerException ex) {
 
                         /* wrong digest ignored: the file will be downloaded */
                     }
@@ -340,8 +574,10 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
                 // download entry
                 entry = driveSdo.downloadEntry(token, entry);
 
-                // check MD5 of the downloaded entry
-                checkMD5(entry);
+                // check MD5 of the downloaded bytes
+                checkDigest(entry.getLocalMd5Sum(), entry);
+                if (!file.isDirectory())
+                    storeMD5(entry, null);
             }
 
             // check directory
@@ -353,6 +589,7 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
                 DirectoryBO dirBO = new DirectoryBO();
                 dirBO.setFile(entry.getFile());
                 dirBO.setDestinationDirectory(file.getFile());
+                dirBO.setFormat(ArchiveFormat.fromEntry(entry.getMimeType(), entry.getName()));
                 dirBO = directoryCompressorWorkflowManager.handleWorkflow(dirBO, DirectoryCompressorWorkflowManager.ACTION_DECOMPRESS);
 
                 // delete downloaded file
@@ -360,6 +597,10 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
                 if (!entry.getFile().delete())
                     logger.finer("Unable to delete downloaded file...");
 
+                // in case apply the incremental changes
+                if (file.isIncremental())
+                    applyDeltas(token, file, parentId);
+
                 // return decompressed directory
                 FileBO fBO = new FileBO();
                 fBO.setFile(dirBO.getFile());
@@ -382,9 +623,374 @@ public class FileStorageWorkflowManagerImpl extends BaseWorkflowManager<FileBO>
 
     private FileBO replace(FileBO file) throws WorkflowManagerException {
 
+        // check chunked option
+        if (file.isDirectory() && file.isChunked())
+            return chunkStoreWorkflowManager.handleWorkflow(file, ChunkStoreWorkflowManager.ACTION_REPLACE);
+
+        // check incremental option
+        if (file.isDirectory() && file.isIncremental())
+            return snapshot(file, false);
+
         return upsert(file, false);
     }
 
+    private FileBO snapshot(FileBO file, boolean upload) throws WorkflowManagerException {
+
+        try {
+
+            // check delete after option
+            if (file.isDeleteAfter()) {
+
+                logger.warning("Delete option ignored");
+                file.setDeleteAfter(false);
+            }
+
+            // open the index of the last snapshot
+            SnapshotIndex index = SnapshotIndex.open(getConfigDirectory(), file.getName());
+
+            // get token
+            TokenBO token = getToken();
+
+            // process folders and get parent ID
+            String parentId = driveSdo.getLastFolderId(token, extractFolders(file.getName()), DriveSdo.DRIVE_ROOT_FOLDER_ID, file.isCreateFolders());
+
+            // check base archive
+            String baseName = extractFileName(file.getName());
+            boolean baseFound = true;
+            try {
+
+                driveSdo.searchEntry(token, baseName, parentId);
+
+            } catch (ItemNotFoundException ex) {
+
+                baseFound = false;
+            }
+
+            if (!index.exists() || !baseFound) {
+
+                logger.fine("No previous snapshot: upload the base archive");
+
+                // record the files before archiving them
+                index.reset(file.getFile());
+
+                // upload/replace the base archive
+                FileBO fBO = upsert(file, upload);
+
+                // the changes of the previous base archive don't apply anymore
+                List<String> deltaIds = new ArrayList<>();
+                for (EntryBO delta : listDeltas(token, baseName, parentId))
+                    deltaIds.add(delta.getId());
+                driveSdo.trashEntries(token, deltaIds);
+
+                // the snapshot is complete
+                index.save();
+                return fBO;
+            }
+
+            // compare the directory with the last snapshot
+            logger.info(String.format("Upload the changes of '%s' to entry '%s'", file.getFile().getAbsolutePath(), file.getName()));
+            index.scan(file.getFile(), new SnapshotIndex.Digester() {
+
+                public String digest(File f) throws WorkflowManagerException {
+
+                    return computeMD5(f);
+                }
+            });
+            if (!index.hasChanges()) {
+
+                logger.fine("No changes since the last snapshot");
+
+            } else {
+
+                logger.fine(String.format("%d files added or changed, %d deleted", index.getChangedFiles().size(), index.getDeletedEntries().size()));
+
+                // compress the changes
+                DirectoryBO dirBO = new DirectoryBO();
+                dirBO.setFile(file.getFile());
+                dirBO.setLevel(file.getCompressionLevel());
+                dirBO.setFormat(file.getFormat());
+                dirBO.setFiles(index.getChangedFiles());
+                dirBO.setDeletedEntries(index.getDeletedEntries());
+                dirBO = directoryCompressorWorkflowManager.handleWorkflow(dirBO, DirectoryCompressorWorkflowManager.ACTION_COMPRESS);
+
+                // upload the delta archive next to the base archive (the names sort chronologically)
+                SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss");
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                EntryBO entry = new EntryBO();
+                entry.setName(baseName + DELTA_SUFFIX + format.format(new Date()));
+                entry.setFile(dirBO.getFile());
+                entry.setMimeType(file.getMimeType() != null ? file.getMimeType() : file.getFormat().getMimeType());
+                try {
+
+                    entry = driveSdo.uploadEntry(token, entry, parentId);
+                    checkDigest(entry.getLocalMd5Sum(), entry);
+
+                } finally {
+
+                    // delete temporary file
+                    logger.finer("Delete temporary file");
+                    if (!dirBO.getFile().delete())
+                        logger.finer("Unable to delete temporary file...");
+                }
+            }
+
+            // the snapshot is complete
+            index.save();
+
+            // return updated directory
+            FileBO fBO = new FileBO();
+            fBO.setFile(file.getFile());
+            fBO.setName(file.getName());
+            return fBO;
+
+        } catch (SdoException | IOException ex) {
+
+            // re-throw exception
+            throw new WorkflowManagerException(ex.getMessage(), ex);
+        }
+    }
+
+    private List<EntryBO> listDeltas(TokenBO token, String baseName, String parentId) throws SdoException {
+
+        // delta archives of the base archive, in chronological order
+        List<EntryBO> deltas = new ArrayList<>();
+        for (EntryBO entry : driveSdo.listEntries(token, parentId))
+            if (entry.getName().startsWith(baseName + DELTA_SUFFIX))
+                deltas.add(entry);
+        Collections.sort(deltas, new Comparator<EntryBO>() {
+
+            public int compare(EntryBO a, EntryBO b) {
+
+                return a.getName().compareTo(b.getName());
+            }
+        });
+
+        return deltas;
+    }
+
+    private void applyDeltas(TokenBO token, FileBO file, String parentId) throws SdoException, WorkflowManagerException, IOException {
+
+        for (EntryBO delta : listDeltas(token, extractFileName(file.getName()), parentId)) {
+
+            logger.fine(String.format("Apply changes '%s'", delta.getName()));
+
+            // download the delta archive
+            File tempFile = File.createTempFile("drivecopy" + System.currentTimeMillis(), "temp");
+            try {
+
+                delta.setFile(tempFile);
+                delta = driveSdo.downloadEntry(token, delta);
+                checkDigest(delta.getLocalMd5Sum(), delta);
+
+                // extract the changes over the restored directory
+                DirectoryBO dirBO = new DirectoryBO();
+                dirBO.setFile(tempFile);
+                dirBO.setDestinationDirectory(file.getFile());
+                dirBO.setFormat(ArchiveFormat.fromEntry(delta.getMimeType(), delta.getName()));
+                dirBO.setOverwrite(true);
+                directoryCompressorWorkflowManager.handleWorkflow(dirBO, DirectoryCompressorWorkflowManager.ACTION_DECOMPRESS);
+
+            } finally {
+
+                // delete downloaded file
+                if (!tempFile.delete())
+                    logger.finer("Unable to delete downloaded file...");
+            }
+        }
+    }
+
+    private FileBO sync(FileBO file) throws WorkflowManagerException {
+
+        try {
+
+            // get token
+            TokenBO token = getToken();
+
+            // log action
+            logger.info(String.format("Synchronize directory '%s' to '%s'", file.getFile().getAbsolutePath(), file.getName()));
+
+            // check directory
+            if (!file.getFile().isDirectory())
+                throw new WorkflowManagerException(String.format("'%s' is not a directory", file.getFile().getAbsolutePath()));
+
+            // check delete after option
+            if (file.isDeleteAfter())
+                logger.warning("Delete option ignored");
+
+            // check archive option
+            if (file.isArchive())
+                logger.warning("Archive option ignored: only new or changed files are uploaded");
+
+            // check stream option
+            if (file.isStream())
+                logger.warning("Stream option ignored");
+
+            // process folders and get the ID of the remote folder, creating it if needed
+            String folderId = driveSdo.getLastFolderId(token, file.getName().split("/"), DriveSdo.DRIVE_ROOT_FOLDER_ID, true);
+
+            // transfer the files in parallel, within the limit set by the controller
+            ConcurrencyController controller = createConcurrencyController(file.getJobs());
+            ExecutorService executor = Executors.newFixedThreadPool(controller.getMaxLimit());
+            controller.start();
+            try {
+
+                List<Future<Boolean>> futures = new ArrayList<>();
+                syncDirectories(token, file, Collections.singletonMap(file.getFile(), folderId), controller, executor, futures);
+
+                // wait for completion
+                int failed = 0;
+                for (Future<Boolean> future : futures)
+                    if (!future.get())
+                        failed++;
+                if (failed > 0)
+                    throw new WorkflowManagerException(String.format("%d of %d files not synchronized", failed, futures.size()));
+                logger.fine(String.format("%d files synchronized", futures.size()));
+
+            } finally {
+
+                controller.stop();
+                executor.shutdownNow();
+            }
+
+            // return synchronized directory
+            FileBO fBO = new FileBO();
+            fBO.setFile(file.getFile());
+            fBO.setName(file.getName());
+            return fBO;
+
+        } catch (SdoException | InterruptedException | ExecutionException ex) {
+
+            // re-throw exception
+            throw new WorkflowManagerException(ex.getMessage(), ex);
+        }
+    }
+
+    private void syncDirectories(final TokenBO token, final FileBO file, Map<File, String> directories, final ConcurrencyController controller, ExecutorService executor, List<Future<Boolean>> futures) throws SdoException {
+
+        // list the remote entries of all the folders of the same depth at once
+        Map<String, List<EntryBO>> listings = driveSdo.listEntries(token, new ArrayList<>(directories.values()));
+
+        Map<File, String> subdirectories = new LinkedHashMap<>();
+        for (Map.Entry<File, String> directory : directories.entrySet()) {
+
+            // index the remote entries by name
+            final String folderId = directory.getValue();
+            final Map<String, EntryBO> remoteEntries = new HashMap<>();
+            for (EntryBO entry : listings.get(folderId))
+                if (remoteEntries.put(entry.getName(), entry) != null)
+                    logger.warning(String.format("Multiple remote entries with name '%s' in '%s'", entry.getName(), directory.getKey().getAbsolutePath()));
+
+            File[] files = directory.getKey().listFiles();
+            if (files == null) {
+
+                logger.warning(String.format("Unable to list directory '%s'", directory.getKey().getAbsolutePath()));
+                continue;
+            }
+
+            for (final File f : files) {
+
+                if (f.isDirectory()) {
+
+                    // folders are resolved sequentially, so they are never created twice
+                    subdirectories.put(f, driveSdo.getLastFolderId(token, new String[]{f.getName()}, folderId, true));
+
+                } else {
+
+                    // transfer the file in background
+                    futures.add(executor.submit(new Callable<Boolean>() {
+
+                        public Boolean call() throws InterruptedException {
+
+                            controller.acquire();
+                            try {
+
+                                return syncFile(token, file, f, remoteEntries.get(f.getName()), folderId);
+
+                            } finally {
+
+                                controller.release();
+                            }
+                        }
+                    }));
+                }
+            }
+        }
+
+        // continue with the next depth
+        if (!subdirectories.isEmpty())
+            syncDirectories(token, file, subdirectories, controller, executor, futures);
+    }
+
+    private boolean syncFile(TokenBO token, FileBO file, File f, EntryBO remoteEntry, String folderId) {
+
+        try {
+
+            EntryBO entry = remoteEntry;
+            if (entry == null) {
+
+                // new file
+                entry = new EntryBO();
+                entry.setName(f.getName());
+
+            } else {
+
+                // check Google Docs files
+                if (entry.getMd5Sum() == null) {
+
+                    logger.warning(String.format("Remote entry '%s' has no binary content: not replaced", entry.getName()));
+                    return true;
+                }
+
+                // compare the digests
+                entry.setFile(f);
+                try {
+
+                    checkMD5(entry);
+                    logger.finer(String.format("File '%s' not changed", f.getAbsolutePath()));
+                    return true;
+
+                } catch (WorkflowManagerException ex) {
+
+                    /* wrong digest: the file will be replaced */
+                }
+            }
+
+            // set file and MIME type properties
+            entry.setFile(f);
+            if (file.getMimeType() != null)
+                entry.setMimeType(file.getMimeType());
+            else if (entry.getMimeType() == null)
+                entry.setMimeType("application/octet-stream");
+
+            // identity of the file before the transfer
+            DigestBO before = identify(f);
+
+            // upload/replace entry
+            if (remoteEntry == null) {
+
+                logger.fine(String.format("Upload file '%s'", f.getAbsolutePath()));
+                entry = driveSdo.uploadEntry(token, entry, folderId);
+
+            } else {
+
+                logger.fine(String.format("Replace file '%s'", f.getAbsolutePath()));
+                entry.setSkipRevision(file.isSkipRevision());
+                entry = driveSdo.updateEntry(token, entry);
+            }
+
+            // check MD5 of the uploaded bytes
+            checkDigest(entry.getLocalMd5Sum(), entry);
+            storeMD5(entry, before);
+            return true;
+
+        } catch (SdoException | WorkflowManagerException ex) {
+
+            // log the failure and continue with the other files
+            logger.log(Level.SEVERE, String.format("Unable to synchronize '%s': %s", f.getAbsolutePath(), ex.getMessage()), ex);
+            return false;
+        }
+    }
+
     private void processFileForDeletion(File f, List<File> notCompressed) {
 
         // check if file not compressed or cannot be read or written
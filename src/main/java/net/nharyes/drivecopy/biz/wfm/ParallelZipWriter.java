@@ -0,0 +1,708 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+public class ParallelZipWriter {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int DEFAULT_LEVEL = 6;
+    private static final int LOCSIG = 0x04034b50;
+    private static final int EXTSIG = 0x08074b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+    private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGICCOUNT = 0xFFFF;
+    private static final int FLAG_DATA_DESCRIPTOR = 8;
+    private static final int FLAG_UTF8 = 2048;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int ZIP64_EXTID = 0x0001;
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final double INCOMPRESSIBLE_ENTROPY = 7.5;
+    private static final Set<String> INCOMPRESSIBLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "mp4", "m4v", "mov", "mkv", "avi", "webm", "zip", "jar", "apk", "docx", "xlsx", "pptx", "odt",
+            "gz", "tgz", "bz2", "xz", "zst", "lz4", "7z", "rar"));
+
+    // entry to compress
+    private static class Source {
+
+        private String name;
+
+        private File file;
+
+        private byte[] data;
+    }
+
+    // block of an entry, compressed independently
+    private static class Block {
+
+        private String name;
+
+        // stored as is, with the CRC computed by the read-ahead
+        private boolean stored;
+
+        private File file;
+
+        private byte[] data;
+
+        private long time;
+
+        private boolean first;
+
+        private boolean last;
+
+        // the entry may not fit the 32 bits sizes, as the length of its file tells
+        private boolean zip64;
+
+        // CRC and size of the whole entry, set in its last block
+        private long crc;
+
+        private long size;
+
+        private Future<byte[]> compressed;
+    }
+
+    // central directory record
+    private static class Entry {
+
+        private byte[] name;
+
+        private int method;
+
+        private long time;
+
+        private long offset;
+
+        private long crc;
+
+        private long size;
+
+        private long csize;
+
+        private boolean zip64;
+    }
+
+    // destination
+    private CountingOutputStream out;
+
+    // compression level
+    private int level;
+
+    // level adapted to the upload rate, if any
+    private AdaptiveCompressionLevel adaptiveLevel;
+
+    // number of blocks compressed concurrently
+    private int parallelism;
+
+    private List<Source> sources = new ArrayList<>();
+
+    // deflaters not in use, by level
+    private final List<Queue<Deflater>> deflaters = new ArrayList<>();
+
+    public ParallelZipWriter(OutputStream out, int level, int parallelism) {
+
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        // the default level of zlib, so that the deflaters are pooled by level
+        this.level = level == Deflater.DEFAULT_COMPRESSION ? DEFAULT_LEVEL : level;
+        this.parallelism = Math.max(1, parallelism);
+        for (int n = 0; n <= Deflater.BEST_COMPRESSION; n++)
+            deflaters.add(new ConcurrentLinkedQueue<Deflater>());
+    }
+
+    public ParallelZipWriter(OutputStream out, AdaptiveCompressionLevel adaptiveLevel, int parallelism) {
+
+        this(out, DirectoryCompressorWorkflowManager.LEVEL_AUTO, parallelism);
+        this.adaptiveLevel = adaptiveLevel;
+    }
+
+    public void addFile(String name, File file) {
+
+        Source source = new Source();
+        source.name = name;
+        source.file = file;
+        sources.add(source);
+    }
+
+    public void addData(String name, byte[] data) {
+
+        Source source = new Source();
+        source.name = name;
+        source.data = data;
+        sources.add(source);
+    }
+
+    public void finish() throws IOException {
+
+        // the read-ahead queue bounds the blocks held in memory
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final BlockingQueue<Block> blocks = new ArrayBlockingQueue<>(parallelism * 2);
+        FutureTask<Void> reader = new FutureTask<>(new Callable<Void>() {
+
+            public Void call() throws Exception {
+
+                read(pool, blocks);
+                return null;
+            }
+        });
+        Thread readerThread = new Thread(reader, "ZIP read-ahead");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        try {
+
+            // write the compressed blocks in order
+            List<Entry> entries = new ArrayList<>();
+            Entry entry = null;
+            while (true) {
+
+                // wait for the next block until the read-ahead is over
+                Block block = blocks.poll(100, TimeUnit.MILLISECONDS);
+                if (block == null) {
+
+                    if (reader.isDone() && blocks.isEmpty())
+                        break;
+                    continue;
+                }
+
+                if (block.stored) {
+
+                    entries.add(writeStoredEntry(block));
+                    continue;
+                }
+
+                if (block.first) {
+
+                    entry = new Entry();
+                    entry.name = block.name.getBytes(StandardCharsets.UTF_8);
+                    entry.method = METHOD_DEFLATED;
+                    entry.time = block.time;
+                    entry.offset = out.count;
+                    entry.zip64 = block.zip64;
+                    writeLocalHeader(entry);
+                }
+
+                byte[] data = block.compressed.get();
+                out.write(data);
+                assert entry != null;
+                entry.csize += data.length;
+
+                if (block.last) {
+
+                    entry.crc = block.crc;
+                    entry.size = block.size;
+                    writeDataDescriptor(entry);
+                    entries.add(entry);
+                }
+            }
+
+            // check errors of the read-ahead
+            reader.get();
+
+            writeCentralDirectory(entries);
+            out.flush();
+
+        } catch (InterruptedException ex) {
+
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+
+        } catch (ExecutionException ex) {
+
+            // re-throw cause
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new IOException(ex.getCause().getMessage(), ex.getCause());
+
+        } finally {
+
+            readerThread.interrupt();
+            pool.shutdownNow();
+
+            // the running blocks give back their deflaters before they are released
+            boolean interrupted = false;
+            while (!pool.isTerminated()) {
+
+                try {
+
+                    pool.awaitTermination(1, TimeUnit.SECONDS);
+
+                } catch (InterruptedException ex) {
+
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            // release native resources
+            for (Queue<Deflater> queue : deflaters) {
+
+                Deflater deflater;
+                while ((deflater = queue.poll()) != null)
+                    deflater.end();
+            }
+        }
+    }
+
+    private void read(ForkJoinPool pool, BlockingQueue<Block> blocks) throws IOException, InterruptedException {
+
+        byte[] buffer = new byte[BLOCK_SIZE];
+        for (Source source : sources) {
+
+            // status
+            logger.fine(String.format("Compressing '%s'", source.name.substring(source.name.lastIndexOf(File.separator) + 1)));
+
+            // check whether deflating is worth it
+            if (level == 0 || (source.file != null && isIncompressible(source.file))) {
+
+                blocks.put(readStored(source, buffer));
+                continue;
+            }
+
+            InputStream in = source.file != null ? new FileInputStream(source.file) : new ByteArrayInputStream(source.data);
+            try {
+
+                // split the entry in blocks, each one using the end of the previous one as dictionary
+                CRC32 crc = new CRC32();
+                long size = 0;
+                byte[] dictionary = null;
+                byte[] data = readBlock(in, buffer);
+                boolean first = true;
+                boolean zip64 = source.file != null && source.file.length() >= ZIP64_MAGICVAL;
+                while (data != null) {
+
+                    byte[] next = data.length == BLOCK_SIZE ? readBlock(in, buffer) : null;
+                    crc.update(data, 0, data.length);
+                    size += data.length;
+
+                    Block block = new Block();
+                    block.name = source.name;
+                    block.time = source.file != null ? source.file.lastModified() : System.currentTimeMillis();
+                    block.first = first;
+                    block.last = next == null;
+                    block.zip64 = zip64;
+                    block.crc = crc.getValue();
+                    block.size = size;
+                    block.compressed = pool.submit(deflate(data, dictionary, block.last, adaptiveLevel != null ? adaptiveLevel.getLevel() : level));
+                    blocks.put(block);
+
+                    dictionary = data.length > DICTIONARY_SIZE ? Arrays.copyOfRange(data, data.length - DICTIONARY_SIZE, data.length) : data;
+                    data = next;
+                    first = false;
+                }
+
+            } finally {
+
+                in.close();
+            }
+        }
+    }
+
+    private static boolean isIncompressible(File f) throws IOException {
+
+        // media and archives are already compressed
+        String name = f.getName().toLowerCase();
+        if (INCOMPRESSIBLE_EXTENSIONS.contains(name.substring(name.lastIndexOf('.') + 1)))
+            return true;
+
+        // otherwise sample the middle of the file
+        long length = f.length();
+        if (length < SAMPLE_SIZE)
+            return false;
+        byte[] sample = new byte[SAMPLE_SIZE];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+
+            raf.seek(length / 2 - SAMPLE_SIZE / 2);
+            raf.readFully(sample);
+        }
+
+        // Shannon entropy in bits per byte
+        int[] counts = new int[256];
+        for (byte b : sample)
+            counts[b & 0xFF]++;
+        double entropy = 0;
+        for (int count : counts) {
+
+            if (count > 0) {
+
+                double p = (double) count / sample.length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+
+        return entropy > INCOMPRESSIBLE_ENTROPY;
+    }
+
+    private static Block readStored(Source source, byte[] buffer) throws IOException {
+
+        Block block = new Block();
+        block.name = source.name;
+        block.stored = true;
+        block.first = true;
+        block.last = true;
+        block.file = source.file;
+        block.data = source.data;
+        block.time = source.file != null ? source.file.lastModified() : System.currentTimeMillis();
+
+        // the CRC must precede the data
+        CRC32 crc = new CRC32();
+        if (source.file != null) {
+
+            try (InputStream in = new FileInputStream(source.file)) {
+
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+
+                    crc.update(buffer, 0, count);
+                    block.size += count;
+                }
+            }
+
+        } else {
+
+            crc.update(source.data, 0, source.data.length);
+            block.size = source.data.length;
+        }
+        block.crc = crc.getValue();
+
+        return block;
+    }
+
+    private Entry writeStoredEntry(Block block) throws IOException {
+
+        Entry entry = new Entry();
+        entry.name = block.name.getBytes(StandardCharsets.UTF_8);
+        entry.method = METHOD_STORED;
+        entry.time = block.time;
+        entry.offset = out.count;
+        entry.crc = block.crc;
+        entry.size = block.size;
+        entry.csize = block.size;
+        writeLocalHeader(entry);
+
+        if (block.file != null) {
+
+            // copy the file in bulk
+            out.flush();
+            WritableByteChannel target = Channels.newChannel(out);
+            try (FileChannel channel = new FileInputStream(block.file).getChannel()) {
+
+                long position = 0;
+                while (position < block.size) {
+
+                    long count = channel.transferTo(position, block.size - position, target);
+                    if (count <= 0)
+                        throw new IOException(String.format("File '%s' changed while compressing", block.file.getAbsolutePath()));
+                    position += count;
+                }
+            }
+
+        } else
+            out.write(block.data);
+
+        return entry;
+    }
+
+    private static byte[] readBlock(InputStream in, byte[] buffer) throws IOException {
+
+        // a short block is the last one of the entry (possibly empty)
+        int count = 0;
+        int read;
+        while (count < buffer.length && (read = in.read(buffer, count, buffer.length - count)) != -1)
+            count += read;
+
+        return Arrays.copyOf(buffer, count);
+    }
+
+    private Callable<byte[]> deflate(final byte[] data, final byte[] dictionary, final boolean last, final int blockLevel) {
+
+        return new Callable<byte[]>() {
+
+            public byte[] call() {
+
+                long start = System.nanoTime();
+                Deflater deflater = deflaters.get(blockLevel).poll();
+                if (deflater == null)
+                    deflater = new Deflater(blockLevel, true);
+                try {
+
+                    if (dictionary != null)
+                        deflater.setDictionary(dictionary);
+                    deflater.setInput(data);
+
+                    // the blocks of an entry end on a byte boundary, so they can be concatenated
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+                    byte[] buffer = new byte[Math.min(64 * 1024, data.length + 1024)];
+                    if (last) {
+
+                        deflater.finish();
+                        while (!deflater.finished()) {
+
+                            int count = deflater.deflate(buffer);
+                            compressed.write(buffer, 0, count);
+                        }
+
+                    } else {
+
+                        int count;
+                        do {
+
+                            count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                            compressed.write(buffer, 0, count);
+
+                        } while (count == buffer.length);
+                    }
+
+                    // in case measure the compression throughput
+                    if (adaptiveLevel != null)
+                        adaptiveLevel.record(compressed.size(), System.nanoTime() - start);
+
+                    return compressed.toByteArray();
+
+                } finally {
+
+                    deflater.reset();
+                    deflaters.get(blockLevel).offer(deflater);
+                }
+            }
+        };
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+
+        writeInt(LOCSIG);
+        if (entry.method == METHOD_DEFLATED) {
+
+            // CRC and sizes follow the data
+            writeShort(entry.zip64 ? 45 : 20);
+            writeShort(FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+            writeShort(METHOD_DEFLATED);
+            writeInt(toDosTime(entry.time));
+            writeInt(0);
+            writeInt(entry.zip64 ? ZIP64_MAGICVAL : 0);
+            writeInt(entry.zip64 ? ZIP64_MAGICVAL : 0);
+            writeShort(entry.name.length);
+            writeShort(entry.zip64 ? 20 : 0);
+            out.write(entry.name);
+            if (entry.zip64) {
+
+                // placeholder telling the readers that the data descriptor has 64 bits sizes
+                writeShort(ZIP64_EXTID);
+                writeShort(16);
+                writeLong(0);
+                writeLong(0);
+            }
+
+        } else {
+
+            // CRC and sizes are known
+            boolean zip64 = entry.size >= ZIP64_MAGICVAL;
+            writeShort(zip64 ? 45 : 10);
+            writeShort(FLAG_UTF8);
+            writeShort(METHOD_STORED);
+            writeInt(toDosTime(entry.time));
+            writeInt(entry.crc);
+            writeInt(zip64 ? ZIP64_MAGICVAL : entry.csize);
+            writeInt(zip64 ? ZIP64_MAGICVAL : entry.size);
+            writeShort(entry.name.length);
+            writeShort(zip64 ? 20 : 0);
+            out.write(entry.name);
+            if (zip64) {
+
+                writeShort(ZIP64_EXTID);
+                writeShort(16);
+                writeLong(entry.size);
+                writeLong(entry.csize);
+            }
+        }
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+
+        writeInt(EXTSIG);
+        writeInt(entry.crc);
+        if (entry.zip64 || entry.csize >= ZIP64_MAGICVAL || entry.size >= ZIP64_MAGICVAL) {
+
+            writeLong(entry.csize);
+            writeLong(entry.size);
+
+        } else {
+
+            writeInt(entry.csize);
+            writeInt(entry.size);
+        }
+    }
+
+    private void writeCentralDirectory(List<Entry> entries) throws IOException {
+
+        long offset = out.count;
+        for (Entry entry : entries) {
+
+            // ZIP64 extra field for the values not fitting
+            boolean zip64Size = entry.size >= ZIP64_MAGICVAL;
+            boolean zip64Csize = entry.csize >= ZIP64_MAGICVAL;
+            boolean zip64Offset = entry.offset >= ZIP64_MAGICVAL;
+            int extraLength = (zip64Size ? 8 : 0) + (zip64Csize ? 8 : 0) + (zip64Offset ? 8 : 0);
+            int version = extraLength > 0 ? 45 : entry.method == METHOD_DEFLATED ? 20 : 10;
+
+            writeInt(CENSIG);
+            writeShort(version);
+            writeShort(version);
+            writeShort(entry.method == METHOD_DEFLATED ? FLAG_DATA_DESCRIPTOR | FLAG_UTF8 : FLAG_UTF8);
+            writeShort(entry.method);
+            writeInt(toDosTime(entry.time));
+            writeInt(entry.crc);
+            writeInt(zip64Csize ? ZIP64_MAGICVAL : entry.csize);
+            writeInt(zip64Size ? ZIP64_MAGICVAL : entry.size);
+            writeShort(entry.name.length);
+            writeShort(extraLength > 0 ? extraLength + 4 : 0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(zip64Offset ? ZIP64_MAGICVAL : entry.offset);
+            out.write(entry.name);
+            if (extraLength > 0) {
+
+                writeShort(ZIP64_EXTID);
+                writeShort(extraLength);
+                if (zip64Size)
+                    writeLong(entry.size);
+                if (zip64Csize)
+                    writeLong(entry.csize);
+                if (zip64Offset)
+                    writeLong(entry.offset);
+            }
+        }
+        long length = out.count - offset;
+
+        // in case write the ZIP64 end records
+        int count = entries.size();
+        if (count >= ZIP64_MAGICCOUNT || offset >= ZIP64_MAGICVAL || length >= ZIP64_MAGICVAL) {
+
+            long zip64Offset = out.count;
+            writeInt(ZIP64_ENDSIG);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(length);
+            writeLong(offset);
+
+            writeInt(ZIP64_LOCSIG);
+            writeInt(0);
+            writeLong(zip64Offset);
+            writeInt(1);
+        }
+
+        writeInt(ENDSIG);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, ZIP64_MAGICCOUNT));
+        writeShort(Math.min(count, ZIP64_MAGICCOUNT));
+        writeInt(Math.min(length, ZIP64_MAGICVAL));
+        writeInt(Math.min(offset, ZIP64_MAGICVAL));
+        writeShort(0);
+    }
+
+    private static long toDosTime(long time) {
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);
+
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16 |
+                calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private void writeShort(int v) throws IOException {
+
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long v) throws IOException {
+
+        writeShort((int) (v & 0xFFFF));
+        writeShort((int) ((v >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long v) throws IOException {
+
+        writeInt(v & 0xFFFFFFFFL);
+        writeInt(v >>> 32);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        // bytes written
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import net.nharyes.drivecopy.biz.exc.WorkflowManagerException;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+public class SnapshotIndex {
+
+    /*
+     * Constants
+     */
+    private static final String INDEX_DIRECTORY = "drivecopy.snapshots";
+    private static final String UNKNOWN_DIGEST = "-";
+
+    public interface Digester {
+
+        String digest(File f) throws WorkflowManagerException;
+    }
+
+    // index file
+    private File file;
+
+    // relative path -> "<size> <mtime> <MD5>"
+    private Properties entries = new Properties();
+
+    // files added or changed since the last snapshot
+    private List<File> changedFiles = new ArrayList<>();
+
+    // entries deleted since the last snapshot
+    private List<String> deletedEntries = new ArrayList<>();
+
+    private SnapshotIndex(File file) {
+
+        this.file = file;
+    }
+
+    public static SnapshotIndex open(File configDirectory, String entryName) throws IOException {
+
+        // one index for each remote entry
+        File directory = new File(configDirectory != null ? configDirectory : new File("."), INDEX_DIRECTORY);
+        SnapshotIndex index = new SnapshotIndex(new File(directory, URLEncoder.encode(entryName, "UTF-8") + ".index"));
+
+        // load entries
+        if (index.file.exists()) {
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(index.file))) {
+
+                index.entries.load(in);
+            }
+        }
+
+        return index;
+    }
+
+    public boolean exists() {
+
+        return file.exists();
+    }
+
+    public List<File> getChangedFiles() {
+
+        return changedFiles;
+    }
+
+    public List<String> getDeletedEntries() {
+
+        return deletedEntries;
+    }
+
+    public boolean hasChanges() {
+
+        return !changedFiles.isEmpty() || !deletedEntries.isEmpty();
+    }
+
+    public void scan(File directory, Digester digester) throws IOException, WorkflowManagerException {
+
+        // compare the tree with the last snapshot
+        Properties scanned = new Properties();
+        changedFiles.clear();
+        scan(directory, directory.getAbsolutePath().length() + 1, scanned, digester);
+
+        // the entries not found anymore are deleted
+        deletedEntries.clear();
+        for (String entryName : entries.stringPropertyNames())
+            if (!scanned.containsKey(entryName))
+                deletedEntries.add(entryName);
+        Collections.sort(deletedEntries);
+
+        entries = scanned;
+    }
+
+    private void scan(File f, int prefixLength, Properties scanned, Digester digester) throws IOException, WorkflowManagerException {
+
+        if (f.isDirectory()) {
+
+            // process all files contained
+            File[] files = f.listFiles();
+            if (files == null)
+                throw new IOException(String.format("Unable to list directory '%s'", f.getAbsolutePath()));
+            for (File fl : files)
+                scan(fl, prefixLength, scanned, digester);
+
+            return;
+        }
+
+        // the same size and modification time mean the same content
+        String entryName = f.getAbsolutePath().substring(prefixLength);
+        String identity = String.format("%d %d", f.length(), f.lastModified());
+        String previous = entries.getProperty(entryName);
+        if (previous != null && previous.startsWith(identity + " ")) {
+
+            scanned.setProperty(entryName, previous);
+            return;
+        }
+
+        // otherwise compare the digests, when known
+        String digest = digester.digest(f);
+        String previousDigest = previous != null ? previous.substring(previous.lastIndexOf(' ') + 1) : null;
+        if (previousDigest == null || UNKNOWN_DIGEST.equals(previousDigest) || !previousDigest.equals(digest))
+            changedFiles.add(f);
+        scanned.setProperty(entryName, String.format("%s %s", identity, digest));
+    }
+
+    public void reset(File directory) throws IOException, WorkflowManagerException {
+
+        // a full snapshot contains all the files
+        entries.clear();
+        changedFiles.clear();
+        deletedEntries.clear();
+        scan(directory, directory.getAbsolutePath().length() + 1, entries, new Digester() {
+
+            public String digest(File f) {
+
+                return UNKNOWN_DIGEST;
+            }
+        });
+        changedFiles.clear();
+    }
+
+    public void save() throws IOException {
+
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+            throw new IOException(String.format("Unable to create directory '%s'", file.getParentFile().getAbsolutePath()));
+
+        // write to a temporary file then replace the index
+        File temp = new File(file.getAbsolutePath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+
+            entries.store(out, "DriveCopy snapshot index");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
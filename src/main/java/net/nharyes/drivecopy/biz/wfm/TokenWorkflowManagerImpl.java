@@ -74,7 +74,7 @@ public class TokenWorkflowManagerImpl extends BaseWorkflowManager<TokenBO> imple
         }
     }
 
-    private TokenBO get(TokenBO token) throws WorkflowManagerException {
+    private synchronized TokenBO get(TokenBO token) throws WorkflowManagerException {
 
         try {
 
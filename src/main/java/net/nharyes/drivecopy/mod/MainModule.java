@@ -17,8 +17,8 @@
 package net.nharyes.drivecopy.mod;
 
 import com.google.api.client.googleapis.media.MediaHttpDownloaderProgressListener;
-import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
 import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
@@ -30,11 +30,28 @@ import net.nharyes.drivecopy.FileUploadProgressListener;
 import net.nharyes.drivecopy.biz.wfm.*;
 import net.nharyes.drivecopy.srvc.DriveSdo;
 import net.nharyes.drivecopy.srvc.DriveSdoImpl;
+import net.nharyes.drivecopy.srvc.UploadProgressListener;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+
+import java.net.ProxySelector;
+import java.util.concurrent.TimeUnit;
 
 public class MainModule extends AbstractModule {
 
+    /*
+     * Constants
+     */
+    private static final String HTTP_TRANSPORT_KEY = "httpTransport";
+    private static final String HTTP_MAX_CONNECTIONS_KEY = "httpMaxConnections";
+    private static final String HTTP_TRANSPORT_APACHE = "apache";
+    private static final String HTTP_TRANSPORT_NET = "net";
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+    private static final int IDLE_CONNECTION_TIMEOUT = 60;
+
     /*
      * Configuration file
      */
@@ -69,12 +86,46 @@ public class MainModule extends AbstractModule {
         return config;
     }
 
+    @Provides
+    @Singleton
+    private HttpTransport provideHttpTransport(PropertiesConfiguration config) {
+
+        // keep-alive connections pool size
+        int maxConnections = config.getInt(HTTP_MAX_CONNECTIONS_KEY, DEFAULT_MAX_CONNECTIONS);
+
+        // check transport
+        String transport = config.getString(HTTP_TRANSPORT_KEY, HTTP_TRANSPORT_APACHE);
+        if (transport.equals(HTTP_TRANSPORT_NET)) {
+
+            // java.net keeps the idle connections in a JVM-wide cache
+            if (System.getProperty("http.maxConnections") == null)
+                System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+
+            return new NetHttpTransport();
+        }
+
+        if (!transport.equals(HTTP_TRANSPORT_APACHE))
+            throw new IllegalArgumentException(String.format("Unknown HTTP transport '%s'", transport));
+
+        // pooled connection manager
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        // retries and redirects are handled by the Google HTTP client
+        return new ApacheHttpTransport(HttpClientBuilder.create()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()))
+                .evictIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.SECONDS)
+                .disableRedirectHandling()
+                .disableAutomaticRetries()
+                .build());
+    }
+
     @Override
     protected void configure() {
 
-        // HTTP transport
-        bind(HttpTransport.class).to(NetHttpTransport.class).in(Singleton.class);
-
         // JSON factory
         bind(JsonFactory.class).to(JacksonFactory.class).in(Singleton.class);
 
@@ -82,7 +133,7 @@ public class MainModule extends AbstractModule {
         bind(DriveSdo.class).to(DriveSdoImpl.class);
 
         // File upload Progress Listener
-        bind(MediaHttpUploaderProgressListener.class).to(FileUploadProgressListener.class);
+        bind(UploadProgressListener.class).to(FileUploadProgressListener.class);
 
         // File download Progress Listener
         bind(MediaHttpDownloaderProgressListener.class).to(FileDownloadProgressListener.class);
@@ -95,5 +146,11 @@ public class MainModule extends AbstractModule {
 
         // Token Workflow Manager
         bind(TokenWorkflowManager.class).to(TokenWorkflowManagerImpl.class);
+
+        // Digest Workflow Manager
+        bind(DigestWorkflowManager.class).to(DigestWorkflowManagerImpl.class);
+
+        // Chunk Store Workflow Manager
+        bind(ChunkStoreWorkflowManager.class).to(ChunkStoreWorkflowManagerImpl.class);
     }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class AdaptiveChunkSizer {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final long TARGET_CHUNK_TIME = TimeUnit.SECONDS.toNanos(4);
+    private static final int MINIMUM_CHUNK_SIZE = 256 * 1024;
+    private static final int DEFAULT_CHUNK_SIZE = 10 * 1024 * 1024;
+
+    // chunk size bounds
+    private int minChunkSize;
+    private int maxChunkSize;
+
+    // current chunk size
+    private int chunkSize;
+
+    public AdaptiveChunkSizer(int minChunkSize, int maxChunkSize) {
+
+        // chunk sizes must be multiples of the minimum chunk size
+        this.minChunkSize = align(minChunkSize);
+        this.maxChunkSize = Math.max(this.minChunkSize, align(maxChunkSize));
+        this.chunkSize = Math.min(this.maxChunkSize, Math.max(this.minChunkSize, DEFAULT_CHUNK_SIZE));
+    }
+
+    private static int align(int size) {
+
+        return Math.max(1, size / MINIMUM_CHUNK_SIZE) * MINIMUM_CHUNK_SIZE;
+    }
+
+    public int getChunkSize() {
+
+        return chunkSize;
+    }
+
+    public int update(long bytes, long nanos) {
+
+        if (bytes <= 0 || nanos <= 0)
+            return chunkSize;
+
+        // size of a chunk taking the target time at the measured throughput
+        double throughput = (double) bytes / nanos;
+        long ideal = (long) (throughput * TARGET_CHUNK_TIME);
+
+        // grow or shrink by at most a factor of two per chunk
+        int size = chunkSize;
+        if (ideal > chunkSize * 2L)
+            size = chunkSize * 2 > 0 ? chunkSize * 2 : maxChunkSize;
+        else if (ideal < chunkSize / 2)
+            size = chunkSize / 2;
+        size = Math.min(maxChunkSize, Math.max(minChunkSize, align(size)));
+
+        if (size != chunkSize) {
+
+            logger.finer(String.format("Throughput %.2f MB/s, chunk size set to %d KB", throughput * 1000, size / 1024));
+            chunkSize = size;
+        }
+
+        return chunkSize;
+    }
+}
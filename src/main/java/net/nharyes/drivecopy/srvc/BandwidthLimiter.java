@@ -0,0 +1,299 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import com.google.api.client.http.HttpContent;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Singleton
+public class BandwidthLimiter {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final String UPLOAD_RATE_KEY = "uploadRate";
+    private static final String UPLOAD_SCHEDULE_KEY = "uploadRateSchedule";
+    private static final String DOWNLOAD_RATE_KEY = "downloadRate";
+    private static final String DOWNLOAD_SCHEDULE_KEY = "downloadRateSchedule";
+    private static final int MAX_PERMITS = 64 * 1024;
+    private static final String[] DAYS = {"sun", "mon", "tue", "wed", "thu", "fri", "sat"};
+    private static final Pattern SCHEDULE_PATTERN = Pattern.compile("(?:(\\w{3})(?:-(\\w{3}))?\\s+)?(\\d{1,2}):(\\d{2})-(\\d{1,2}):(\\d{2})=(\\d+)");
+
+    // upload cap
+    private Cap uploadCap;
+
+    // download cap
+    private Cap downloadCap;
+
+    @Inject
+    public BandwidthLimiter(PropertiesConfiguration config) {
+
+        uploadCap = new Cap("Upload", config.getLong(UPLOAD_RATE_KEY, 0), config.getStringArray(UPLOAD_SCHEDULE_KEY));
+        downloadCap = new Cap("Download", config.getLong(DOWNLOAD_RATE_KEY, 0), config.getStringArray(DOWNLOAD_SCHEDULE_KEY));
+    }
+
+    public HttpContent throttleUpload(HttpContent content) {
+
+        if (content == null || content instanceof ThrottledContent || !uploadCap.isConfigured())
+            return content;
+
+        return new ThrottledContent(content);
+    }
+
+    public OutputStream throttleDownload(OutputStream out) {
+
+        if (!downloadCap.isConfigured())
+            return out;
+
+        return new ThrottledOutputStream(out, downloadCap);
+    }
+
+    public void acquireDownload(int bytes) {
+
+        downloadCap.acquire(bytes);
+    }
+
+    static class ScheduleEntry {
+
+        // days of the week (0 is Sunday), -1 for every day
+        private int firstDay = -1;
+        private int lastDay = -1;
+
+        // time window (minutes of the day)
+        private int start;
+        private int end;
+
+        // rate in bytes/s, 0 for unlimited
+        private long rate;
+
+        static ScheduleEntry parse(String entry) {
+
+            Matcher matcher = SCHEDULE_PATTERN.matcher(entry);
+            if (!matcher.matches())
+                throw new IllegalArgumentException(String.format("Wrong bandwidth schedule entry '%s' (i.e. 'Mon-Fri 09:00-18:00=1048576')", entry));
+
+            ScheduleEntry scheduleEntry = new ScheduleEntry();
+            if (matcher.group(1) != null) {
+
+                scheduleEntry.firstDay = parseDay(matcher.group(1));
+                scheduleEntry.lastDay = matcher.group(2) != null ? parseDay(matcher.group(2)) : scheduleEntry.firstDay;
+            }
+            scheduleEntry.start = Integer.parseInt(matcher.group(3)) * 60 + Integer.parseInt(matcher.group(4));
+            scheduleEntry.end = Integer.parseInt(matcher.group(5)) * 60 + Integer.parseInt(matcher.group(6));
+            scheduleEntry.rate = Long.parseLong(matcher.group(7));
+
+            return scheduleEntry;
+        }
+
+        private static int parseDay(String day) {
+
+            for (int i = 0; i < DAYS.length; i++)
+                if (DAYS[i].equalsIgnoreCase(day))
+                    return i;
+
+            throw new IllegalArgumentException(String.format("Wrong day '%s' in bandwidth schedule", day));
+        }
+
+        long getRate() {
+
+            return rate;
+        }
+
+        boolean matches(Calendar now) {
+
+            int minute = now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
+            int day = now.get(Calendar.DAY_OF_WEEK) - 1;
+
+            // check day (ranges can wrap around the week)
+            if (firstDay != -1) {
+
+                boolean inDays = firstDay <= lastDay ? day >= firstDay && day <= lastDay : day >= firstDay || day <= lastDay;
+                if (!inDays)
+                    return false;
+            }
+
+            // check time (windows can wrap around midnight)
+            return start <= end ? minute >= start && minute < end : minute >= start || minute < end;
+        }
+    }
+
+    private class Cap {
+
+        // direction name
+        private String name;
+
+        // default rate in bytes/s, 0 for unlimited
+        private long defaultRate;
+
+        // schedule based overrides
+        private List<ScheduleEntry> schedule = new ArrayList<>();
+
+        // token bucket (null when unlimited)
+        private RateLimiter rateLimiter;
+
+        // current rate
+        private long rate = -1;
+
+        // minute of the last schedule check
+        private long lastCheck = -1;
+
+        private Cap(String name, long defaultRate, String[] entries) {
+
+            this.name = name;
+            this.defaultRate = Math.max(0, defaultRate);
+            for (String entry : entries)
+                schedule.add(ScheduleEntry.parse(entry.trim()));
+        }
+
+        private boolean isConfigured() {
+
+            return defaultRate > 0 || !schedule.isEmpty();
+        }
+
+        private synchronized RateLimiter getRateLimiter() {
+
+            // check the schedule once a minute
+            long minute = System.currentTimeMillis() / 60000;
+            if (minute == lastCheck)
+                return rateLimiter;
+            lastCheck = minute;
+
+            // the first matching entry wins
+            long newRate = defaultRate;
+            Calendar now = Calendar.getInstance();
+            for (ScheduleEntry entry : schedule) {
+
+                if (entry.matches(now)) {
+
+                    newRate = entry.rate;
+                    break;
+                }
+            }
+
+            if (newRate != rate) {
+
+                rate = newRate;
+                if (rate == 0) {
+
+                    rateLimiter = null;
+                    logger.fine(String.format("%s bandwidth unlimited", name));
+
+                } else {
+
+                    if (rateLimiter == null)
+                        rateLimiter = RateLimiter.create(rate);
+                    else
+                        rateLimiter.setRate(rate);
+                    logger.fine(String.format("%s bandwidth capped to %d bytes/s", name, rate));
+                }
+            }
+
+            return rateLimiter;
+        }
+
+        private void acquire(int bytes) {
+
+            RateLimiter limiter = getRateLimiter();
+            if (limiter != null && bytes > 0)
+                limiter.acquire(bytes);
+        }
+    }
+
+    private static class ThrottledOutputStream extends FilterOutputStream {
+
+        // bandwidth cap
+        private Cap cap;
+
+        private ThrottledOutputStream(OutputStream out, Cap cap) {
+
+            super(out);
+            this.cap = cap;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+
+            cap.acquire(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            // small pieces keep the transfer smooth
+            while (len > 0) {
+
+                int count = Math.min(len, MAX_PERMITS);
+                cap.acquire(count);
+                out.write(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+    }
+
+    private class ThrottledContent implements HttpContent {
+
+        // wrapped content
+        private HttpContent content;
+
+        private ThrottledContent(HttpContent content) {
+
+            this.content = content;
+        }
+
+        public long getLength() throws IOException {
+
+            return content.getLength();
+        }
+
+        public String getType() {
+
+            return content.getType();
+        }
+
+        public boolean retrySupported() {
+
+            return content.retrySupported();
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+
+            ThrottledOutputStream tout = new ThrottledOutputStream(out, uploadCap);
+            content.writeTo(tout);
+            tout.flush();
+        }
+    }
+}
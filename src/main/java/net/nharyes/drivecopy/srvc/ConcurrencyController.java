@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class ConcurrencyController {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final long INTERVAL = 5;
+    private static final double MIN_THROUGHPUT_GAIN = 1.05;
+
+    // transferred bytes
+    private TransferMonitor transferMonitor;
+
+    // throttling signals
+    private RequestRateLimiter requestRateLimiter;
+
+    // concurrency bounds
+    private int maxLimit;
+
+    // current concurrency limit
+    private int limit = 1;
+
+    // running transfers
+    private int active;
+
+    // last sample
+    private long lastBytes;
+    private long lastThrottles;
+    private long lastTime;
+    private double lastThroughput;
+
+    // periodic sampling
+    private ScheduledExecutorService scheduler;
+
+    public ConcurrencyController(TransferMonitor transferMonitor, RequestRateLimiter requestRateLimiter, int maxLimit) {
+
+        this.transferMonitor = transferMonitor;
+        this.requestRateLimiter = requestRateLimiter;
+        this.maxLimit = Math.max(1, maxLimit);
+    }
+
+    public int getMaxLimit() {
+
+        return maxLimit;
+    }
+
+    public synchronized int getLimit() {
+
+        return limit;
+    }
+
+    public synchronized void start() {
+
+        // initial sample
+        lastBytes = transferMonitor.getBytes();
+        lastThrottles = requestRateLimiter.getThrottleCount();
+        lastTime = System.nanoTime();
+        if (maxLimit == 1)
+            return;
+
+        // sample the throughput periodically
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+
+                Thread thread = new Thread(r, "drivecopy-concurrency");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+
+                update();
+            }
+        }, INTERVAL, INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    public synchronized void acquire() throws InterruptedException {
+
+        // wait for a free slot
+        while (active >= limit)
+            wait();
+        active++;
+    }
+
+    public synchronized void release() {
+
+        active--;
+        notifyAll();
+    }
+
+    private synchronized void update() {
+
+        // throughput since the last sample
+        long bytes = transferMonitor.getBytes();
+        long throttles = requestRateLimiter.getThrottleCount();
+        long time = System.nanoTime();
+        double throughput = (bytes - lastBytes) * 1e9 / Math.max(1, time - lastTime);
+
+        int newLimit = limit;
+        if (throttles > lastThrottles) {
+
+            // multiplicative decrease on rate limits and server errors
+            newLimit = Math.max(1, limit / 2);
+
+        } else if (active >= limit && throughput > lastThroughput * MIN_THROUGHPUT_GAIN) {
+
+            // additive increase while the throughput keeps rising
+            newLimit = Math.min(maxLimit, limit + 1);
+        }
+
+        logger.finer(String.format("Concurrency: %d active, limit %d, %.2f MB/s", active, newLimit, throughput / (1024 * 1024)));
+        if (newLimit != limit) {
+
+            logger.fine(String.format("Concurrency limit set to %d", newLimit));
+            limit = newLimit;
+            notifyAll();
+        }
+
+        lastBytes = bytes;
+        lastThrottles = throttles;
+        lastTime = time;
+        lastThroughput = throughput;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class DownloadJournal {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final String SUFFIX = ".drivecopy";
+    private static final String FILE_ID_KEY = "fileId";
+    private static final String MD5_KEY = "md5Checksum";
+    private static final String LENGTH_KEY = "length";
+    private static final String PART_SIZE_KEY = "partSize";
+    private static final String RANGE_KEY_PREFIX = "range.";
+    private static final long SAVE_INTERVAL = 8 * 1024 * 1024;
+
+    // journal file
+    private File file;
+
+    // journal content
+    private Properties properties = new Properties();
+
+    // bytes committed since the last save
+    private long unsaved;
+
+    // whether a previous download is resumed
+    private boolean resumed;
+
+    private DownloadJournal(File file) {
+
+        this.file = file;
+    }
+
+    public static DownloadJournal open(File target, String fileId, String md5Checksum, long length, long partSize) {
+
+        DownloadJournal journal = new DownloadJournal(new File(target.getAbsolutePath() + SUFFIX));
+
+        // load previous journal
+        if (journal.file.exists() && target.exists()) {
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(journal.file))) {
+
+                journal.properties.load(in);
+
+            } catch (IOException ex) {
+
+                journal.logger.log(Level.WARNING, String.format("Unable to read download journal '%s'", journal.file.getAbsolutePath()), ex);
+            }
+
+            // resume only if the remote file hasn't changed
+            journal.resumed = fileId.equals(journal.properties.getProperty(FILE_ID_KEY)) && md5Checksum != null && md5Checksum.equals(journal.properties.getProperty(MD5_KEY)) && String.valueOf(length).equals(journal.properties.getProperty(LENGTH_KEY)) && String.valueOf(partSize).equals(journal.properties.getProperty(PART_SIZE_KEY));
+        }
+
+        // start a new journal
+        if (!journal.resumed) {
+
+            journal.properties.clear();
+            journal.properties.setProperty(FILE_ID_KEY, fileId);
+            if (md5Checksum != null)
+                journal.properties.setProperty(MD5_KEY, md5Checksum);
+            journal.properties.setProperty(LENGTH_KEY, String.valueOf(length));
+            journal.properties.setProperty(PART_SIZE_KEY, String.valueOf(partSize));
+        }
+
+        return journal;
+    }
+
+    public boolean isResumed() {
+
+        return resumed;
+    }
+
+    public synchronized long getPosition(long first) {
+
+        return Long.parseLong(properties.getProperty(RANGE_KEY_PREFIX + first, String.valueOf(first)));
+    }
+
+    public synchronized void commit(long first, long position) throws IOException {
+
+        // update range position
+        unsaved += position - getPosition(first);
+        properties.setProperty(RANGE_KEY_PREFIX + first, String.valueOf(position));
+
+        // save periodically
+        if (unsaved >= SAVE_INTERVAL)
+            save();
+    }
+
+    public synchronized void save() throws IOException {
+
+        // write to a temporary file then replace the journal
+        File temp = new File(file.getAbsolutePath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+
+            properties.store(out, "DriveCopy download journal");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        unsaved = 0;
+    }
+
+    public synchronized void delete() {
+
+        if (file.exists() && !file.delete())
+            logger.finer("Unable to delete download journal...");
+    }
+}
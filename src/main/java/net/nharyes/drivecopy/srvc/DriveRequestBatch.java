@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.DriveRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+public class DriveRequestBatch<T> {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final String BATCH_PATH = "batch/drive/v2";
+
+    // Drive service
+    private Drive service;
+
+    // rate limiter shared by all the requests
+    private RequestRateLimiter requestRateLimiter;
+
+    // queued requests
+    private List<DriveRequest<T>> requests = new ArrayList<>();
+
+    // results of the flushed requests
+    private List<T> results = new ArrayList<>();
+
+    // errors of the flushed requests
+    private List<GoogleJsonError> errors = new ArrayList<>();
+
+    public DriveRequestBatch(Drive service, RequestRateLimiter requestRateLimiter) {
+
+        this.service = service;
+        this.requestRateLimiter = requestRateLimiter;
+    }
+
+    public void queue(DriveRequest<T> request) {
+
+        requests.add(request);
+    }
+
+    public int size() {
+
+        return requests.size();
+    }
+
+    public void flush() throws IOException, InterruptedException {
+
+        // prepare results
+        results = new ArrayList<>(Collections.<T>nCopies(requests.size(), null));
+        errors = new ArrayList<>(Collections.<GoogleJsonError>nCopies(requests.size(), null));
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++)
+            pending.add(i);
+
+        for (int n = 0; n < DriveSdoImpl.MAX_TRIES && !pending.isEmpty(); ++n) {
+
+            // apply exponential backoff to the retried requests
+            if (n > 0) {
+
+                logger.finer(String.format("Retry %d batched requests", pending.size()));
+                Thread.sleep(DriveSdoImpl.getBackoffDelay(n - 1));
+            }
+
+            final List<Integer> retry = new ArrayList<>();
+            final long[] retryAfter = {-1};
+            for (int from = 0; from < pending.size(); from += MAX_BATCH_SIZE) {
+
+                // compose batch
+                BatchRequest batch = service.batch();
+                batch.setBatchUrl(new GenericUrl(service.getRootUrl() + BATCH_PATH));
+                for (final Integer index : pending.subList(from, Math.min(from + MAX_BATCH_SIZE, pending.size()))) {
+
+                    requests.get(index).queue(batch, new JsonBatchCallback<T>() {
+
+                        @Override
+                        public void onSuccess(T t, HttpHeaders responseHeaders) {
+
+                            results.set(index, t);
+                            errors.set(index, null);
+                        }
+
+                        @Override
+                        public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+
+                            errors.set(index, e);
+
+                            // in case retry the request
+                            if (DriveSdoImpl.isRetryable(e.getCode(), e)) {
+
+                                retry.add(index);
+                                if (e.getCode() != 500)
+                                    retryAfter[0] = Math.max(retryAfter[0], RequestRateLimiter.getRetryAfter(responseHeaders));
+                            }
+                        }
+                    });
+                }
+
+                // execute batch (the limiter interceptor takes a permit for each batched request)
+                logger.finer(String.format("Execute batch of %d requests", batch.size()));
+                batch.execute();
+            }
+
+            // throttled requests slow down all the requests
+            if (retryAfter[0] >= 0)
+                requestRateLimiter.onThrottle(retryAfter[0]);
+
+            pending = retry;
+        }
+
+        // clear queue
+        requests.clear();
+    }
+
+    public T getResult(int index) {
+
+        return results.get(index);
+    }
+
+    public GoogleJsonError getError(int index) {
+
+        return errors.get(index);
+    }
+}
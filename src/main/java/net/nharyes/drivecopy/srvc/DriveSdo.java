@@ -20,6 +20,9 @@ import net.nharyes.drivecopy.biz.bo.EntryBO;
 import net.nharyes.drivecopy.biz.bo.TokenBO;
 import net.nharyes.drivecopy.srvc.exc.SdoException;
 
+import java.util.List;
+import java.util.Map;
+
 public interface DriveSdo {
 
     /*
@@ -35,5 +38,11 @@ public interface DriveSdo {
 
     EntryBO searchEntry(TokenBO token, String name, String parentId) throws SdoException;
 
+    List<EntryBO> listEntries(TokenBO token, String parentId) throws SdoException;
+
+    Map<String, List<EntryBO>> listEntries(TokenBO token, List<String> parentIds) throws SdoException;
+
+    void trashEntries(TokenBO token, List<String> ids) throws SdoException;
+
     String getLastFolderId(TokenBO token, String[] folders, String rootId, boolean createIfNotFound) throws SdoException;
 }
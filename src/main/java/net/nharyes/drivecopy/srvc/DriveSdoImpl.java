@@ -17,22 +17,20 @@
 package net.nharyes.drivecopy.srvc;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.googleapis.media.MediaHttpDownloader;
 import com.google.api.client.googleapis.media.MediaHttpDownloaderProgressListener;
-import com.google.api.client.googleapis.media.MediaHttpUploader;
-import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
 import com.google.api.client.http.*;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.Drive.Files;
 import com.google.api.services.drive.Drive.Files.Get;
-import com.google.api.services.drive.Drive.Files.Insert;
-import com.google.api.services.drive.Drive.Files.Update;
 import com.google.api.services.drive.DriveRequest;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
 import com.google.api.services.drive.model.ParentReference;
+import com.google.common.base.Objects;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import net.nharyes.drivecopy.biz.bo.EntryBO;
@@ -40,13 +38,15 @@ import net.nharyes.drivecopy.biz.bo.TokenBO;
 import net.nharyes.drivecopy.srvc.exc.FolderNotFoundException;
 import net.nharyes.drivecopy.srvc.exc.ItemNotFoundException;
 import net.nharyes.drivecopy.srvc.exc.SdoException;
+import org.apache.commons.configuration.PropertiesConfiguration;
 
 import javax.annotation.Nonnull;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Random;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,6 +63,30 @@ public class DriveSdoImpl implements DriveSdo {
      */
     protected static final int HTTP_REQUEST_TIMEOUT = 3 * 600000;
 
+    /*
+     * Google Drive folder MIME type
+     */
+    protected static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
+
+    /*
+     * Configuration keys
+     */
+    private static final String UPLOAD_CHUNK_MIN_SIZE_KEY = "uploadChunkMinSize";
+    private static final String UPLOAD_CHUNK_MAX_SIZE_KEY = "uploadChunkMaxSize";
+    private static final int DEFAULT_UPLOAD_CHUNK_MIN_SIZE = 1024 * 1024;
+    private static final int DEFAULT_UPLOAD_CHUNK_MAX_SIZE = 64 * 1024 * 1024;
+    private static final String DOWNLOAD_PARTS_KEY = "downloadParts";
+    private static final String DOWNLOAD_PART_MIN_SIZE_KEY = "downloadPartMinSize";
+    private static final String UPLOAD_JOURNAL_DIRECTORY = "drivecopy.uploads";
+    private static final int DEFAULT_DOWNLOAD_PARTS = 1;
+    private static final long DEFAULT_DOWNLOAD_PART_MIN_SIZE = 32 * 1024 * 1024;
+
+    /*
+     * Exponential backoff
+     */
+    static final int MAX_TRIES = 5;
+    private static final Random RANDOM = new Random();
+
     // HTTP transport
     protected HttpTransport httpTransport;
 
@@ -70,25 +94,82 @@ public class DriveSdoImpl implements DriveSdo {
     protected JsonFactory jsonFactory;
 
     // File upload progress listener
-    protected MediaHttpUploaderProgressListener fileUploadProgressListener;
+    protected UploadProgressListener fileUploadProgressListener;
 
     // File download progress listener
     protected MediaHttpDownloaderProgressListener fileDownloadProgressListener;
 
+    // remote folders cache
+    protected FolderCache folderCache;
+
+    // lock held while creating remote folders
+    private final Object folderCreationLock = new Object();
+
+    // local files hasher
+    protected FileHasher fileHasher;
+
+    // rate limiter shared by all the requests
+    protected RequestRateLimiter requestRateLimiter;
+
+    // bytes transferred by all the requests
+    protected TransferMonitor transferMonitor;
+
+    // directory of the upload journals
+    private java.io.File journalDirectory;
+
+    // bandwidth caps
+    protected BandwidthLimiter bandwidthLimiter;
+
+    // upload chunk size bounds
+    protected int uploadChunkMinSize;
+    protected int uploadChunkMaxSize;
+
+    // parallel ranged downloads
+    protected int downloadParts;
+    protected long downloadPartMinSize;
+
+    // Drive service shared by all the requests
+    private Drive service;
+
+    // token used to build the Drive service
+    private TokenBO serviceToken;
+
     @Inject
-    public DriveSdoImpl(HttpTransport httpTransport, JsonFactory jsonFactory, MediaHttpUploaderProgressListener fileUploadProgressListener, MediaHttpDownloaderProgressListener fileDownloadProgressListener) {
+    public DriveSdoImpl(HttpTransport httpTransport, JsonFactory jsonFactory, UploadProgressListener fileUploadProgressListener, MediaHttpDownloaderProgressListener fileDownloadProgressListener, FolderCache folderCache, FileHasher fileHasher, RequestRateLimiter requestRateLimiter, TransferMonitor transferMonitor, BandwidthLimiter bandwidthLimiter, PropertiesConfiguration config) {
 
         this.httpTransport = httpTransport;
         this.jsonFactory = jsonFactory;
         this.fileUploadProgressListener = fileUploadProgressListener;
         this.fileDownloadProgressListener = fileDownloadProgressListener;
+        this.folderCache = folderCache;
+        this.fileHasher = fileHasher;
+        this.requestRateLimiter = requestRateLimiter;
+        this.transferMonitor = transferMonitor;
+        this.bandwidthLimiter = bandwidthLimiter;
+
+        // read upload chunk size bounds
+        uploadChunkMinSize = config.getInt(UPLOAD_CHUNK_MIN_SIZE_KEY, DEFAULT_UPLOAD_CHUNK_MIN_SIZE);
+        uploadChunkMaxSize = config.getInt(UPLOAD_CHUNK_MAX_SIZE_KEY, DEFAULT_UPLOAD_CHUNK_MAX_SIZE);
+
+        // read ranged downloads settings
+        downloadParts = config.getInt(DOWNLOAD_PARTS_KEY, DEFAULT_DOWNLOAD_PARTS);
+        downloadPartMinSize = config.getLong(DOWNLOAD_PART_MIN_SIZE_KEY, DEFAULT_DOWNLOAD_PART_MIN_SIZE);
+
+        // upload journals stored next to the configuration file
+        java.io.File configFile = config.getFile();
+        java.io.File configDirectory = configFile != null ? configFile.getAbsoluteFile().getParentFile() : null;
+        journalDirectory = new java.io.File(configDirectory != null ? configDirectory : new java.io.File("."), UPLOAD_JOURNAL_DIRECTORY);
     }
 
-    protected Drive getService(@Nonnull TokenBO token) {
+    protected synchronized Drive getService(@Nonnull TokenBO token) {
+
+        // reuse the service (and its refreshed access token) when the token doesn't change
+        if (service != null && isSameToken(serviceToken, token))
+            return service;
 
         final GoogleCredential credential = new GoogleCredential.Builder().setClientSecrets(token.getClientId(), token.getClientSecret()).setJsonFactory(jsonFactory).setTransport(httpTransport).build().setRefreshToken(token.getRefreshToken()).setAccessToken(token.getAccessToken());
 
-        return new Drive.Builder(httpTransport, jsonFactory, new HttpRequestInitializer() {
+        service = new Drive.Builder(httpTransport, jsonFactory, new HttpRequestInitializer() {
 
             public void initialize(HttpRequest httpRequest) {
 
@@ -97,6 +178,51 @@ public class DriveSdoImpl implements DriveSdo {
                     // initialize credentials
                     credential.initialize(httpRequest);
 
+                    // wait for the shared rate limiter before each request
+                    final HttpExecuteInterceptor credentialInterceptor = httpRequest.getInterceptor();
+                    httpRequest.setInterceptor(new HttpExecuteInterceptor() {
+
+                        public void intercept(HttpRequest request) throws IOException {
+
+                            try {
+
+                                requestRateLimiter.acquire();
+
+                            } catch (InterruptedException ex) {
+
+                                throw new InterruptedIOException(ex.getMessage());
+                            }
+                            credentialInterceptor.intercept(request);
+
+                            // apply the upload bandwidth cap
+                            request.setContent(bandwidthLimiter.throttleUpload(request.getContent()));
+                        }
+                    });
+
+                    // adapt the rate to the responses of the server
+                    httpRequest.setResponseInterceptor(new HttpResponseInterceptor() {
+
+                        public void interceptResponse(HttpResponse response) throws IOException {
+
+                            if (response.getStatusCode() == 403) {
+
+                                // the reason of a forbidden response is in its content, which can be read only once
+                                GoogleJsonResponseException ex = GoogleJsonResponseException.from(jsonFactory, response);
+                                if (isRetryable(ex.getStatusCode(), ex.getDetails()))
+                                    requestRateLimiter.onThrottle(RequestRateLimiter.getRetryAfter(response.getHeaders()));
+
+                                // re-throw the parsed error in place of the one of the request
+                                response.disconnect();
+                                throw ex;
+                            }
+
+                            if (response.getStatusCode() == 429 || response.getStatusCode() >= 500)
+                                requestRateLimiter.onThrottle(RequestRateLimiter.getRetryAfter(response.getHeaders()));
+                            else if (response.isSuccessStatusCode())
+                                requestRateLimiter.onSuccess();
+                        }
+                    });
+
                     // set connect and read timeouts
                     httpRequest.setConnectTimeout(HTTP_REQUEST_TIMEOUT);
                     httpRequest.setReadTimeout(HTTP_REQUEST_TIMEOUT);
@@ -108,13 +234,42 @@ public class DriveSdoImpl implements DriveSdo {
                 }
             }
         }).setApplicationName("DriveCopy").build();
+        serviceToken = token;
+
+        return service;
     }
 
-    protected <T> T executeWithExponentialBackoff(DriveRequest<T> req) throws IOException, InterruptedException {
+    private boolean isSameToken(TokenBO a, TokenBO b) {
+
+        return Objects.equal(a.getClientId(), b.getClientId()) && Objects.equal(a.getClientSecret(), b.getClientSecret()) && Objects.equal(a.getRefreshToken(), b.getRefreshToken());
+    }
+
+    static boolean isRetryable(int statusCode, GoogleJsonError details) {
+
+        if (statusCode == 503 || statusCode == 500)
+            return true;
 
-        Random randomGenerator = new Random();
+        // check rate limit errors
+        if (statusCode != 403 || details == null || details.getErrors() == null || details.getErrors().isEmpty())
+            return false;
+        String reason = details.getErrors().get(0).getReason();
+        return "rateLimitExceeded".equals(reason) || "userRateLimitExceeded".equals(reason);
+    }
+
+    static long getBackoffDelay(int n) {
+
+        return (1 << n) * 1000 + RANDOM.nextInt(1001);
+    }
 
-        for (int n = 0; n < 5; ++n) {
+    private long getRetryDelay(int n, GoogleJsonResponseException e) {
+
+        // the rate limiter has already been slowed down by the response interceptor
+        return Math.max(getBackoffDelay(n), RequestRateLimiter.getRetryAfter(e.getHeaders()));
+    }
+
+    protected <T> T executeWithExponentialBackoff(DriveRequest<T> req) throws IOException, InterruptedException {
+
+        for (int n = 0; n < MAX_TRIES; ++n) {
 
             try {
 
@@ -122,10 +277,10 @@ public class DriveSdoImpl implements DriveSdo {
 
             } catch (GoogleJsonResponseException e) {
 
-                if (e.getStatusCode() == 503 || e.getStatusCode() == 500 || (e.getStatusCode() == 403 && (e.getDetails().getErrors().get(0).getReason().equals("rateLimitExceeded") || e.getDetails().getErrors().get(0).getReason().equals("userRateLimitExceeded")))) {
+                if (isRetryable(e.getStatusCode(), e.getDetails())) {
 
                     // apply exponential backoff.
-                    Thread.sleep((1 << n) * 1000 + randomGenerator.nextInt(1001));
+                    Thread.sleep(getRetryDelay(n, e));
 
                 } else {
 
@@ -140,24 +295,105 @@ public class DriveSdoImpl implements DriveSdo {
 
     public EntryBO downloadEntry(@Nonnull TokenBO token, @Nonnull EntryBO entry) throws SdoException {
 
+        DownloadJournal journal = null;
         try {
 
             // get file
-            Drive service = getService(token);
+            final Drive service = getService(token);
             Get get = service.files().get(entry.getId());
-            MediaHttpDownloader downloader = new MediaHttpDownloader(httpTransport, service.getRequestFactory().getInitializer());
+            final MediaHttpDownloader downloader = new MediaHttpDownloader(httpTransport, service.getRequestFactory().getInitializer());
             downloader.setDirectDownloadEnabled(false);
-            downloader.setProgressListener(fileDownloadProgressListener);
-            File file = executeWithExponentialBackoff(get);
+            File file;
+            try {
+
+                file = executeWithExponentialBackoff(get);
+
+            } catch (GoogleJsonResponseException ex) {
+
+                // check deleted entry
+                if (ex.getStatusCode() == 404)
+                    throw new ItemNotFoundException(String.format("No remote file found with ID '%s'", entry.getId()), ex);
+                throw ex;
+            }
 
             // check download URL and size
             if (file.getDownloadUrl() != null && file.getDownloadUrl().length() > 0) {
 
-                // download file
-                FileOutputStream fout = new FileOutputStream(entry.getFile());
-                downloader.download(new GenericUrl(file.getDownloadUrl()), fout);
-                fout.flush();
-                fout.close();
+                // number of ranges to fetch concurrently
+                int parts = 1;
+                if (file.getFileSize() != null)
+                    parts = (int) Math.max(1, Math.min(downloadParts, file.getFileSize() / downloadPartMinSize));
+
+                if (entry.getOutputStream() != null) {
+
+                    // download straight into the stream
+                    Md5Digest digest = new Md5Digest();
+                    downloader.setProgressListener(monitorDownload(fileDownloadProgressListener, 0));
+                    downloader.download(new GenericUrl(file.getDownloadUrl()), bandwidthLimiter.throttleDownload(digest.wrap(entry.getOutputStream())));
+                    entry.setLocalMd5Sum(digest.getValue());
+
+                } else if (parts > 1) {
+
+                    // open journal
+                    journal = DownloadJournal.open(entry.getFile(), file.getId(), file.getMd5Checksum(), file.getFileSize(), RangedDownloader.getPartSize(file.getFileSize(), parts));
+                    if (journal.isResumed())
+                        logger.fine("Resume previous download");
+
+                    // download ranges in parallel
+                    logger.finer(String.format("Download file in %d parallel ranges", parts));
+                    RangedDownloader rangedDownloader = new RangedDownloader(service.getRequestFactory(), service.getJsonFactory(), parts, transferMonitor, bandwidthLimiter);
+                    rangedDownloader.download(new GenericUrl(file.getDownloadUrl()), file.getFileSize(), entry.getFile(), journal);
+                    entry.setLocalMd5Sum(rangedDownloader.getMd5Sum());
+
+                } else {
+
+                    // resume from the committed bytes of a previous run
+                    long position = 0;
+                    if (file.getFileSize() != null) {
+
+                        journal = DownloadJournal.open(entry.getFile(), file.getId(), file.getMd5Checksum(), file.getFileSize(), file.getFileSize());
+                        position = Math.min(journal.getPosition(0), entry.getFile().length());
+                    }
+                    if (position > 0) {
+
+                        logger.fine(String.format("Resume previous download from byte %d", position));
+                        downloader.setBytesDownloaded(position);
+                    }
+
+                    // drop the bytes not committed
+                    try (RandomAccessFile raf = new RandomAccessFile(entry.getFile(), "rw")) {
+
+                        raf.setLength(position);
+                    }
+
+                    // commit each downloaded chunk
+                    final DownloadJournal downloadJournal = journal;
+                    downloader.setProgressListener(monitorDownload(new MediaHttpDownloaderProgressListener() {
+
+                        public void progressChanged(MediaHttpDownloader downloader) throws IOException {
+
+                            if (downloadJournal != null && downloader.getDownloadState() == MediaHttpDownloader.DownloadState.MEDIA_IN_PROGRESS)
+                                downloadJournal.commit(0, downloader.getNumBytesDownloaded());
+
+                            fileDownloadProgressListener.progressChanged(downloader);
+                        }
+                    }, position));
+
+                    // the bytes committed by a previous run are only digested
+                    Md5Digest digest = new Md5Digest();
+                    fileHasher.update(digest, entry.getFile(), position);
+
+                    // download file
+                    OutputStream fout = bandwidthLimiter.throttleDownload(digest.wrap(new FileOutputStream(entry.getFile(), true)));
+                    downloader.download(new GenericUrl(file.getDownloadUrl()), fout);
+                    fout.flush();
+                    fout.close();
+                    entry.setLocalMd5Sum(digest.getValue());
+                }
+
+                // download completed
+                if (journal != null)
+                    journal.delete();
 
                 // return entry
                 entry.setMd5Sum(file.getMd5Checksum());
@@ -171,11 +407,107 @@ public class DriveSdoImpl implements DriveSdo {
 
         } catch (IOException | InterruptedException ex) {
 
+            // keep the progress for the next run
+            saveJournal(journal);
+
             // re-throw exception
             throw new SdoException(ex.getMessage(), ex);
         }
     }
 
+    private MediaHttpDownloaderProgressListener monitorDownload(final MediaHttpDownloaderProgressListener listener, final long position) {
+
+        return new MediaHttpDownloaderProgressListener() {
+
+            // bytes already accounted
+            private long reported = position;
+
+            public void progressChanged(MediaHttpDownloader downloader) throws IOException {
+
+                transferMonitor.addBytes(downloader.getNumBytesDownloaded() - reported);
+                reported = downloader.getNumBytesDownloaded();
+                listener.progressChanged(downloader);
+            }
+        };
+    }
+
+    private UploadProgressListener monitorUpload(final UploadProgressListener listener) {
+
+        return new UploadProgressListener() {
+
+            // bytes already accounted
+            private long reported = -1;
+
+            public void progressChanged(ResumableUploader uploader) throws IOException {
+
+                // the bytes committed by a previous run aren't accounted
+                if (reported >= 0 && (uploader.getUploadState() == ResumableUploader.UploadState.MEDIA_IN_PROGRESS || uploader.getUploadState() == ResumableUploader.UploadState.MEDIA_COMPLETE))
+                    transferMonitor.addUploadedBytes(uploader.getNumBytesUploaded() - reported, uploader.getLastChunkNanos());
+                reported = uploader.getNumBytesUploaded();
+                listener.progressChanged(uploader);
+            }
+        };
+    }
+
+    private void saveJournal(DownloadJournal journal) {
+
+        if (journal == null)
+            return;
+
+        try {
+
+            journal.save();
+
+        } catch (IOException ex) {
+
+            logger.log(Level.WARNING, ex.getMessage(), ex);
+        }
+    }
+
+    protected File uploadWithExponentialBackoff(Drive service, String method, GenericUrl url, File metadata, EntryBO entry, String target) throws IOException, InterruptedException {
+
+        // a stream can be read only once
+        if (entry.getInputStream() != null) {
+
+            ResumableUploader uploader = new ResumableUploader(service.getRequestFactory(), jsonFactory, new AdaptiveChunkSizer(uploadChunkMinSize, uploadChunkMaxSize), monitorUpload(fileUploadProgressListener), fileHasher);
+            File file = uploader.upload(method, url, metadata, entry.getMimeType(), entry.getInputStream());
+            entry.setLocalMd5Sum(uploader.getMd5Sum());
+            return file;
+        }
+
+        for (int n = 0; n < MAX_TRIES; ++n) {
+
+            try {
+
+                // the journal lets a retry or a later run resume the same session
+                ResumableUploader uploader = new ResumableUploader(service.getRequestFactory(), jsonFactory, new AdaptiveChunkSizer(uploadChunkMinSize, uploadChunkMaxSize), monitorUpload(fileUploadProgressListener), fileHasher);
+                File file = uploader.upload(method, url, metadata, entry.getMimeType(), entry.getFile(), UploadJournal.open(journalDirectory, entry.getFile(), target));
+                entry.setLocalMd5Sum(uploader.getMd5Sum());
+                return file;
+
+            } catch (GoogleJsonResponseException e) {
+
+                if (isRetryable(e.getStatusCode(), e.getDetails())) {
+
+                    // apply exponential backoff.
+                    Thread.sleep(getRetryDelay(n, e));
+
+                } else {
+
+                    // other error, re-throw.
+                    throw e;
+                }
+            }
+        }
+
+        throw new IOException("There has been an error, the upload never succeeded.");
+    }
+
+    private GenericUrl getUploadUrl(Drive service, String path) {
+
+        return new GenericUrl(service.getRootUrl() + "upload/" + service.getServicePath() + path);
+    }
+
     public EntryBO uploadEntry(@Nonnull TokenBO token, @Nonnull EntryBO entry, @Nonnull String parentId) throws SdoException {
 
         try {
@@ -191,21 +523,16 @@ public class DriveSdoImpl implements DriveSdo {
             body.setParents(new ArrayList<ParentReference>());
             body.getParents().add(newParent);
 
-            // set content
-            FileContent mediaContent = new FileContent(entry.getMimeType(), entry.getFile());
-
             // upload file
-            Insert insert = getService(token).files().insert(body, mediaContent);
-            MediaHttpUploader uploader = insert.getMediaHttpUploader();
-            uploader.setDirectUploadEnabled(false);
-            uploader.setProgressListener(fileUploadProgressListener);
-            File file = executeWithExponentialBackoff(insert);
+            Drive service = getService(token);
+            File file = uploadWithExponentialBackoff(service, HttpMethods.POST, getUploadUrl(service, "files"), body, entry, String.format("insert:%s/%s", parentId, entry.getName()));
 
             // compose output entry
             EntryBO entryBO = new EntryBO();
             entryBO.setId(file.getId());
             entryBO.setFile(entry.getFile());
             entryBO.setMd5Sum(file.getMd5Checksum());
+            entryBO.setLocalMd5Sum(entry.getLocalMd5Sum());
             return entryBO;
 
         } catch (IOException | InterruptedException ex) {
@@ -224,16 +551,12 @@ public class DriveSdoImpl implements DriveSdo {
             File file = executeWithExponentialBackoff(service.files().get(entry.getId()));
 
             // update file content
-            FileContent mediaContent = new FileContent(entry.getMimeType(), entry.getFile());
             file.setMimeType(entry.getMimeType());
 
             // update file
-            Update update = service.files().update(entry.getId(), file, mediaContent);
-            update.setNewRevision(!entry.isSkipRevision());
-            MediaHttpUploader uploader = update.getMediaHttpUploader();
-            uploader.setDirectUploadEnabled(false);
-            uploader.setProgressListener(fileUploadProgressListener);
-            File updatedFile = executeWithExponentialBackoff(update);
+            GenericUrl url = getUploadUrl(service, "files/" + entry.getId());
+            url.put("newRevision", !entry.isSkipRevision());
+            File updatedFile = uploadWithExponentialBackoff(service, HttpMethods.PUT, url, file, entry, String.format("update:%s:%b", entry.getId(), !entry.isSkipRevision()));
 
             // compose output entry
             EntryBO docBO = new EntryBO();
@@ -241,6 +564,7 @@ public class DriveSdoImpl implements DriveSdo {
             docBO.setName(updatedFile.getTitle());
             docBO.setFile(entry.getFile());
             docBO.setMd5Sum(updatedFile.getMd5Checksum());
+            docBO.setLocalMd5Sum(entry.getLocalMd5Sum());
             return docBO;
 
         } catch (IOException | InterruptedException ex) {
@@ -250,76 +574,220 @@ public class DriveSdoImpl implements DriveSdo {
         }
     }
 
+    protected void revalidateCachedFolders(Drive service, String rootId, String[] folders) throws IOException, InterruptedException {
+
+        // queue a request for each stale folder of the path
+        DriveRequestBatch<File> batch = new DriveRequestBatch<>(service, requestRateLimiter);
+        List<Integer> stale = new ArrayList<>();
+        List<String> parents = new ArrayList<>();
+        for (int n = 1; n <= folders.length; n++) {
+
+            String path = FolderCache.composePath(rootId, folders, n);
+            String id = folderCache.getFolderId(path);
+            if (id == null || folderCache.isFresh(path))
+                continue;
+
+            // get only the fields needed to check the folder
+            Get get = service.files().get(id);
+            get.setFields("id,title,mimeType,labels/trashed,parents(id,isRoot)");
+            batch.queue(get);
+            stale.add(n);
+
+            // the folder must still be in its cached parent
+            parents.add(n == 1 ? rootId : folderCache.getFolderId(FolderCache.composePath(rootId, folders, n - 1)));
+        }
+        if (stale.isEmpty())
+            return;
+
+        // revalidate all the stale folders at once
+        logger.finer(String.format("Revalidate %d cached remote folders", stale.size()));
+        batch.flush();
+
+        // refresh valid folders
+        List<String> invalid = new ArrayList<>();
+        for (int i = 0; i < stale.size(); i++) {
+
+            int n = stale.get(i);
+            String path = FolderCache.composePath(rootId, folders, n);
+            File folder = batch.getResult(i);
+            if (folder != null && folder.getTitle().equals(folders[n - 1]) && FOLDER_MIME_TYPE.equals(folder.getMimeType()) && !Boolean.TRUE.equals(folder.getLabels().getTrashed()) && parents.get(i) != null && hasParent(folder, parents.get(i)))
+                folderCache.putFolderId(path, folder.getId());
+
+            else if (folder != null || batch.getError(i).getCode() == 404)
+                invalid.add(path);
+
+            else
+                throw new IOException(batch.getError(i).getMessage());
+        }
+
+        // evict deleted, trashed, renamed or moved folders with their subfolders
+        for (String path : invalid)
+            folderCache.remove(path);
+    }
+
+    protected List<File> listFoldersByTitle(Drive service, Collection<String> titles) throws IOException, InterruptedException {
+
+        // compose OR-ed title clauses
+        StringBuilder clauses = new StringBuilder();
+        for (String title : new LinkedHashSet<>(titles)) {
+
+            if (clauses.length() > 0)
+                clauses.append(" or ");
+            clauses.append(String.format("title = '%s'", title));
+        }
+
+        // compose folders query
+        Files.List request = service.files().list();
+        request.setQ(String.format("(%s) and trashed = false and mimeType = '%s'", clauses, FOLDER_MIME_TYPE));
+        request.setFields("nextPageToken,items(id,title,parents(id,isRoot))");
+        request.setMaxResults(1000);
+
+        // execute query
+        logger.finer(String.format("Search remote folders with names %s", titles));
+        List<File> folders = new ArrayList<>();
+        do {
+
+            FileList fs = executeWithExponentialBackoff(request);
+            folders.addAll(fs.getItems());
+            request.setPageToken(fs.getNextPageToken());
+
+        } while (request.getPageToken() != null && request.getPageToken().length() > 0);
+
+        return folders;
+    }
+
+    private boolean hasParent(File file, String parentId) {
+
+        if (file.getParents() == null)
+            return false;
+
+        for (ParentReference parent : file.getParents())
+            if (parent.getId().equals(parentId) || (parentId.equals(DRIVE_ROOT_FOLDER_ID) && Boolean.TRUE.equals(parent.getIsRoot())))
+                return true;
+
+        return false;
+    }
+
     public String getLastFolderId(@Nonnull TokenBO token, String[] folders, @Nonnull String rootId, boolean createIfNotFound) throws SdoException {
 
         Drive service = getService(token);
 
         try {
 
-            // check folders
-            String lastParentId = rootId;
-            String lastParentName = null;
-            if (folders != null) {
+            try {
+
+                return resolveFolders(service, folders, rootId, false);
 
-                // check folders existence
-                for (String currentFolder : folders) {
+            } catch (FolderNotFoundException ex) {
 
-                    try {
+                // in case re-throw exception
+                if (!createIfNotFound)
+                    throw ex;
 
-                        // compose current folder query
-                        Files.List request = service.files().list();
-                        request.setQ(String.format("title = '%s' and trashed = false and mimeType = 'application/vnd.google-apps.folder' and '%s' in parents", currentFolder, lastParentId));
-                        request.setMaxResults(2);
+                // concurrent transfers create the missing folders one at a time, after resolving again the ones created meanwhile
+                synchronized (folderCreationLock) {
 
-                        // execute query
-                        logger.finer(String.format("Search remote folder with name '%s'", currentFolder));
-                        FileList fs = executeWithExponentialBackoff(request);
+                    return resolveFolders(service, folders, rootId, true);
+                }
+            }
 
-                        // check no results
-                        if (fs.getItems().isEmpty())
-                            throw new FolderNotFoundException(String.format("No remote folder found with name '%s'%s", currentFolder, lastParentName != null ? String.format(" in remote folder '%s'", lastParentName) : ""));
+        } catch (IOException | InterruptedException ex) {
 
-                        // check multiple results
-                        if (fs.getItems().size() > 1)
-                            throw new SdoException(String.format("Multiple results for remote folder with name '%s'%s", currentFolder, lastParentName != null ? String.format(" in remote folder '%s'", lastParentName) : ""));
+            // re-throw exception
+            throw new SdoException(ex.getMessage(), ex);
+        }
+    }
 
-                        // check exact title
-                        File folder = fs.getItems().get(0);
-                        if (!folder.getTitle().equals(currentFolder))
-                            throw new FolderNotFoundException(String.format("No remote folder found with exact name '%s'%s", currentFolder, lastParentName != null ? String.format(" in remote folder '%s'", lastParentName) : ""));
+    private String resolveFolders(Drive service, String[] folders, String rootId, boolean createIfNotFound) throws SdoException, IOException, InterruptedException {
 
-                        // set parent ID for next folder/file
-                        lastParentId = folder.getId();
-                        lastParentName = folder.getTitle();
+        // check folders
+        String lastParentId = rootId;
+        String lastParentName = null;
+        if (folders != null) {
 
-                    } catch (FolderNotFoundException ex) {
+            // start from the deepest cached folder
+            int start = 0;
+            if (folderCache.isEnabled()) {
 
-                        // in case re-throw exception
-                        if (!createIfNotFound)
-                            throw ex;
+                revalidateCachedFolders(service, rootId, folders);
+                for (int n = folders.length; n > 0 && start == 0; n--) {
 
-                        // create folder
-                        logger.finer(String.format("Create remote folder with name '%s'", currentFolder));
-                        File folder = new File();
-                        folder.setTitle(currentFolder);
-                        folder.setMimeType("application/vnd.google-apps.folder");
-                        folder.setParents(Collections.singletonList(new ParentReference().setId(lastParentId != null ? lastParentId : "root")));
-                        folder = executeWithExponentialBackoff(service.files().insert(folder));
+                    String path = FolderCache.composePath(rootId, folders, n);
+                    String id = folderCache.getFolderId(path);
+                    if (id == null)
+                        continue;
 
-                        // set parent ID for next folder/file
-                        lastParentId = folder.getId();
-                        lastParentName = folder.getTitle();
-                    }
+                    logger.finer(String.format("Remote folder '%s' found in cache", path));
+                    lastParentId = id;
+                    lastParentName = folders[n - 1];
+                    start = n;
                 }
             }
 
-            return lastParentId;
+            // resolve the remaining folders with a single query
+            List<File> candidates = start < folders.length ? listFoldersByTitle(service, Arrays.asList(folders).subList(start, folders.length)) : Collections.<File>emptyList();
+            for (int i = start; i < folders.length; i++) {
 
-        } catch (IOException | InterruptedException ex) {
+                String currentFolder = folders[i];
+                try {
 
-            // re-throw exception
-            throw new SdoException(ex.getMessage(), ex);
+                    // find the folder in the candidates children of the last parent
+                    File folder = null;
+                    boolean similarTitle = false;
+                    for (File candidate : candidates) {
+
+                        if (!hasParent(candidate, lastParentId))
+                            continue;
+
+                        if (!candidate.getTitle().equals(currentFolder)) {
+
+                            similarTitle |= candidate.getTitle().equalsIgnoreCase(currentFolder);
+                            continue;
+                        }
+
+                        // check multiple results
+                        if (folder != null)
+                            throw new SdoException(String.format("Multiple results for remote folder with name '%s'%s", currentFolder, lastParentName != null ? String.format(" in remote folder '%s'", lastParentName) : ""));
+
+                        folder = candidate;
+                    }
+
+                    // check no results
+                    if (folder == null)
+                        throw new FolderNotFoundException(String.format("No remote folder found with %sname '%s'%s", similarTitle ? "exact " : "", currentFolder, lastParentName != null ? String.format(" in remote folder '%s'", lastParentName) : ""));
+
+                    // set parent ID for next folder/file
+                    lastParentId = folder.getId();
+                    lastParentName = folder.getTitle();
+
+                } catch (FolderNotFoundException ex) {
+
+                    // in case re-throw exception
+                    if (!createIfNotFound)
+                        throw ex;
+
+                    // create folder
+                    logger.finer(String.format("Create remote folder with name '%s'", currentFolder));
+                    File folder = new File();
+                    folder.setTitle(currentFolder);
+                    folder.setMimeType(FOLDER_MIME_TYPE);
+                    folder.setParents(Collections.singletonList(new ParentReference().setId(lastParentId != null ? lastParentId : "root")));
+                    folder = executeWithExponentialBackoff(service.files().insert(folder));
+
+                    // set parent ID for next folder/file
+                    lastParentId = folder.getId();
+                    lastParentName = folder.getTitle();
+
+                    // a new folder has no subfolders
+                    candidates = Collections.emptyList();
+                }
+
+                // cache folder ID
+                folderCache.putFolderId(FolderCache.composePath(rootId, folders, i + 1), lastParentId);
+            }
         }
+
+        return lastParentId;
     }
 
     public EntryBO searchEntry(@Nonnull TokenBO token, @Nonnull String name, @Nonnull String parentId) throws SdoException {
@@ -328,7 +796,7 @@ public class DriveSdoImpl implements DriveSdo {
 
             // compose list query
             Files.List request = getService(token).files().list();
-            request.setQ(String.format("title = '%s' and trashed = false and mimeType != 'application/vnd.google-apps.folder' and '%s' in parents", name, parentId));
+            request.setQ(String.format("title = '%s' and trashed = false and mimeType != '%s' and '%s' in parents", name, FOLDER_MIME_TYPE, parentId));
             request.setMaxResults(2);
 
             // execute query
@@ -362,4 +830,123 @@ public class DriveSdoImpl implements DriveSdo {
             throw new SdoException(ex.getMessage(), ex);
         }
     }
+
+    public List<EntryBO> listEntries(@Nonnull TokenBO token, @Nonnull String parentId) throws SdoException {
+
+        try {
+
+            // compose list query
+            Files.List request = composeListRequest(getService(token), parentId);
+
+            // execute query
+            logger.finer(String.format("List entries of folder '%s'", parentId));
+            List<EntryBO> entries = new ArrayList<>();
+            do {
+
+                FileList files = executeWithExponentialBackoff(request);
+                addEntries(files, entries);
+                request.setPageToken(files.getNextPageToken());
+
+            } while (request.getPageToken() != null && request.getPageToken().length() > 0);
+
+            return entries;
+
+        } catch (IOException | InterruptedException ex) {
+
+            // re-throw exception
+            throw new SdoException(ex.getMessage(), ex);
+        }
+    }
+
+    public Map<String, List<EntryBO>> listEntries(@Nonnull TokenBO token, @Nonnull List<String> parentIds) throws SdoException {
+
+        try {
+
+            // request the first page of all the folders at once
+            Drive service = getService(token);
+            DriveRequestBatch<FileList> batch = new DriveRequestBatch<>(service, requestRateLimiter);
+            for (String parentId : parentIds)
+                batch.queue(composeListRequest(service, parentId));
+            logger.finer(String.format("List entries of %d folders", parentIds.size()));
+            batch.flush();
+
+            Map<String, List<EntryBO>> entries = new HashMap<>();
+            for (int i = 0; i < parentIds.size(); i++) {
+
+                // check error
+                String parentId = parentIds.get(i);
+                if (batch.getError(i) != null)
+                    throw new SdoException(String.format("Unable to list entries of folder '%s': %s", parentId, batch.getError(i).getMessage()));
+
+                // request the following pages one by one
+                List<EntryBO> folderEntries = new ArrayList<>();
+                FileList files = batch.getResult(i);
+                addEntries(files, folderEntries);
+                Files.List request = composeListRequest(service, parentId);
+                request.setPageToken(files.getNextPageToken());
+                while (request.getPageToken() != null && request.getPageToken().length() > 0) {
+
+                    files = executeWithExponentialBackoff(request);
+                    addEntries(files, folderEntries);
+                    request.setPageToken(files.getNextPageToken());
+                }
+
+                entries.put(parentId, folderEntries);
+            }
+
+            return entries;
+
+        } catch (IOException | InterruptedException ex) {
+
+            // re-throw exception
+            throw new SdoException(ex.getMessage(), ex);
+        }
+    }
+
+    private Files.List composeListRequest(Drive service, String parentId) throws IOException {
+
+        // compose list query
+        Files.List request = service.files().list();
+        request.setQ(String.format("'%s' in parents and trashed = false and mimeType != '%s'", parentId, FOLDER_MIME_TYPE));
+        request.setFields("nextPageToken,items(id,title,md5Checksum,mimeType)");
+        request.setMaxResults(1000);
+        return request;
+    }
+
+    private static void addEntries(FileList files, List<EntryBO> entries) {
+
+        for (File file : files.getItems()) {
+
+            EntryBO entry = new EntryBO();
+            entry.setId(file.getId());
+            entry.setName(file.getTitle());
+            entry.setMd5Sum(file.getMd5Checksum());
+            entry.setMimeType(file.getMimeType());
+            entries.add(entry);
+        }
+    }
+
+    public void trashEntries(@Nonnull TokenBO token, @Nonnull List<String> ids) throws SdoException {
+
+        try {
+
+            // move all the files to the trash at once
+            Drive service = getService(token);
+            DriveRequestBatch<File> batch = new DriveRequestBatch<>(service, requestRateLimiter);
+            for (String id : ids)
+                batch.queue(service.files().trash(id).setFields("id"));
+            logger.finer(String.format("Trash %d entries", ids.size()));
+            batch.flush();
+
+            // check errors
+            for (int i = 0; i < ids.size(); i++)
+                if (batch.getError(i) != null)
+                    throw new SdoException(String.format("Unable to trash entry '%s': %s", ids.get(i), batch.getError(i).getMessage()));
+
+        } catch (IOException | InterruptedException ex) {
+
+            // re-throw exception
+            throw new SdoException(ex.getMessage(), ex);
+        }
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+@Singleton
+public class FileHasher {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final String STRATEGY_KEY = "digestStrategy";
+    private static final String STRATEGY_AUTO = "auto";
+    private static final String STRATEGY_MMAP = "mmap";
+    private static final String STRATEGY_BUFFER = "buffer";
+    private static final int BUFFER = 4 * 1024 * 1024;
+    private static final long MAPPED_REGION = 64 * 1024 * 1024;
+    private static final long MIN_MAPPED_LENGTH = 16 * 1024 * 1024;
+
+    // hashing strategy
+    private String strategy;
+
+    // whether mappings can be released without waiting for the garbage collector
+    private static volatile boolean unmapSupported = true;
+
+    // direct buffer of the current thread
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+
+            return ByteBuffer.allocateDirect(BUFFER);
+        }
+    };
+
+    @Inject
+    public FileHasher(PropertiesConfiguration config) {
+
+        strategy = config.getString(STRATEGY_KEY, STRATEGY_AUTO);
+        if (!strategy.equals(STRATEGY_AUTO) && !strategy.equals(STRATEGY_MMAP) && !strategy.equals(STRATEGY_BUFFER))
+            throw new IllegalArgumentException(String.format("Unknown digest strategy '%s'", strategy));
+    }
+
+    public String hash(File file) throws IOException {
+
+        Md5Digest digest = new Md5Digest();
+        update(digest, file, file.length());
+
+        return digest.getValue();
+    }
+
+    public void update(Md5Digest digest, File file, long length) throws IOException {
+
+        try (FileInputStream in = new FileInputStream(file)) {
+
+            // small files don't pay back the cost of the mapping
+            FileChannel channel = in.getChannel();
+            if (strategy.equals(STRATEGY_MMAP) || (strategy.equals(STRATEGY_AUTO) && length >= MIN_MAPPED_LENGTH))
+                updateMapped(digest, channel, length);
+            else
+                updateBuffered(digest, channel, length);
+        }
+    }
+
+    private void updateMapped(Md5Digest digest, FileChannel channel, long length) throws IOException {
+
+        if (channel.size() < length)
+            throw new EOFException(String.format("%d bytes missing from the file", length - channel.size()));
+
+        // digest the file a region at a time, without copies to the heap
+        for (long position = 0; position < length; position += MAPPED_REGION) {
+
+            // only one region is mapped at a time
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_REGION, length - position));
+            try {
+
+                digest.update(region);
+
+            } finally {
+
+                unmap(region);
+            }
+        }
+    }
+
+    private static void unmap(MappedByteBuffer region) {
+
+        if (!unmapSupported)
+            return;
+
+        try {
+
+            try {
+
+                // Java 9 and later
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), region);
+
+            } catch (NoSuchMethodException ex) {
+
+                // Java 8
+                Method cleaner = region.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(region);
+                c.getClass().getMethod("clean").invoke(c);
+            }
+
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+
+            // the regions will be released by the garbage collector
+            unmapSupported = false;
+            Logger.getLogger(FileHasher.class.getName()).log(Level.FINE, "Mapped regions can't be released explicitly", ex);
+        }
+    }
+
+    private void updateBuffered(Md5Digest digest, FileChannel channel, long length) throws IOException {
+
+        // large reads into a direct buffer keep the number of system calls low
+        ByteBuffer buffer = buffers.get();
+        long position = 0;
+        while (position < length) {
+
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER, length - position));
+            int count = channel.read(buffer, position);
+            if (count == -1)
+                throw new EOFException(String.format("%d bytes missing from the file", length - position));
+
+            buffer.flip();
+            digest.update(buffer);
+            position += count;
+        }
+    }
+}
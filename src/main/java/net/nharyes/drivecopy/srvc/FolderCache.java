@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+@Singleton
+public class FolderCache {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final String CACHE_FILE = "drivecopy.folders";
+    private static final String TTL_KEY = "folderCacheTtl";
+    private static final long DEFAULT_TTL = 24 * 60 * 60;
+
+    // cache file
+    private File file;
+
+    // time to live of the entries (milliseconds)
+    private long ttl;
+
+    // remote folder path -> "<ID> <timestamp>"
+    private Properties entries = new Properties();
+
+    @Inject
+    public FolderCache(PropertiesConfiguration config) {
+
+        // cache file stored next to the configuration file
+        File configFile = config.getFile();
+        File directory = configFile != null ? configFile.getAbsoluteFile().getParentFile() : null;
+        file = new File(directory != null ? directory : new File("."), CACHE_FILE);
+
+        // TTL set in seconds, 0 disables the cache
+        ttl = config.getLong(TTL_KEY, DEFAULT_TTL) * 1000;
+
+        // load entries
+        if (isEnabled() && file.exists()) {
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+
+                entries.load(in);
+
+            } catch (IOException ex) {
+
+                // start with an empty cache
+                logger.log(Level.WARNING, String.format("Unable to read folder cache '%s'", file.getAbsolutePath()), ex);
+                entries.clear();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+
+        return ttl > 0;
+    }
+
+    public static String composePath(String rootId, String[] folders, int length) {
+
+        StringBuilder sb = new StringBuilder(rootId);
+        for (int i = 0; i < length; i++)
+            sb.append('/').append(folders[i]);
+
+        return sb.toString();
+    }
+
+    public synchronized String getFolderId(String path) {
+
+        String value = entries.getProperty(path);
+        if (value == null)
+            return null;
+
+        return value.substring(0, value.indexOf(' '));
+    }
+
+    public synchronized boolean isFresh(String path) {
+
+        String value = entries.getProperty(path);
+        if (value == null)
+            return false;
+
+        long timestamp = Long.parseLong(value.substring(value.indexOf(' ') + 1));
+        return System.currentTimeMillis() - timestamp < ttl;
+    }
+
+    public synchronized void putFolderId(String path, String id) {
+
+        if (!isEnabled())
+            return;
+
+        entries.setProperty(path, String.format("%s %d", id, System.currentTimeMillis()));
+        save();
+    }
+
+    public synchronized void remove(String path) {
+
+        if (!isEnabled())
+            return;
+
+        // remove the folder and all its cached subfolders
+        List<String> keys = new ArrayList<>();
+        for (String key : entries.stringPropertyNames())
+            if (key.equals(path) || key.startsWith(path + "/"))
+                keys.add(key);
+        for (String key : keys)
+            entries.remove(key);
+
+        save();
+    }
+
+    private void save() {
+
+        try {
+
+            // write to a temporary file then replace the cache
+            File temp = new File(file.getAbsolutePath() + ".tmp");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+
+                entries.store(out, "DriveCopy remote folders cache");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        } catch (IOException ex) {
+
+            // the cache is only an optimisation
+            logger.log(Level.WARNING, String.format("Unable to write folder cache '%s'", file.getAbsolutePath()), ex);
+        }
+    }
+}
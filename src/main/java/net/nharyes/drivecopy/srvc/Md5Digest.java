@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class Md5Digest {
+
+    // message digest
+    private MessageDigest digest;
+
+    public Md5Digest() throws IOException {
+
+        try {
+
+            digest = MessageDigest.getInstance("MD5");
+
+        } catch (NoSuchAlgorithmException ex) {
+
+            // re-throw exception
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    public void update(byte[] data, int offset, int length) {
+
+        digest.update(data, offset, length);
+    }
+
+    public void update(ByteBuffer buffer) {
+
+        digest.update(buffer);
+    }
+
+    public OutputStream wrap(OutputStream out) {
+
+        return new DigestOutputStream(out, digest);
+    }
+
+    public String getValue() {
+
+        return String.format("%032x", new BigInteger(1, digest.digest()));
+    }
+}
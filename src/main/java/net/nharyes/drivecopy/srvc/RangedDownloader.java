@@ -0,0 +1,295 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer;
+import com.google.api.client.http.*;
+import com.google.api.client.json.JsonFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+public class RangedDownloader {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final int BUFFER = 64 * 1024;
+
+    // HTTP request factory
+    private HttpRequestFactory requestFactory;
+
+    // JSON factory
+    private JsonFactory jsonFactory;
+
+    // number of ranges
+    private int parts;
+
+    // transferred bytes
+    private TransferMonitor transferMonitor;
+
+    // bandwidth caps
+    private BandwidthLimiter bandwidthLimiter;
+
+    // bytes written
+    private AtomicLong bytesDownloaded = new AtomicLong();
+
+    // last logged progress
+    private int lastPercentage = -1;
+
+    // total length
+    private long length;
+
+    // MD5 summary of the downloaded file
+    private String md5Sum;
+
+    public RangedDownloader(HttpRequestFactory requestFactory, JsonFactory jsonFactory, int parts, TransferMonitor transferMonitor, BandwidthLimiter bandwidthLimiter) {
+
+        this.requestFactory = requestFactory;
+        this.jsonFactory = jsonFactory;
+        this.parts = parts;
+        this.transferMonitor = transferMonitor;
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    public static long getPartSize(long length, int parts) {
+
+        return (length + parts - 1) / parts;
+    }
+
+    public String getMd5Sum() {
+
+        return md5Sum;
+    }
+
+    public void download(final GenericUrl url, long length, File target, final DownloadJournal journal) throws IOException, InterruptedException {
+
+        this.length = length;
+        bytesDownloaded.set(0);
+
+        try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+
+            // allocate file
+            raf.setLength(length);
+            final FileChannel channel = raf.getChannel();
+
+            // fetch the ranges concurrently
+            ExecutorService executor = Executors.newFixedThreadPool(parts + 1);
+            try {
+
+                List<Future<Void>> futures = new ArrayList<>();
+                final long partSize = getPartSize(length, parts);
+                for (long first = 0; first < length; first += partSize) {
+
+                    final long rangeFirst = first;
+                    final long rangeLast = Math.min(first + partSize, length) - 1;
+
+                    // skip the bytes already committed by a previous run
+                    bytesDownloaded.addAndGet(journal.getPosition(first) - first);
+                    futures.add(executor.submit(new Callable<Void>() {
+
+                        public Void call() throws Exception {
+
+                            downloadRange(url, channel, journal, rangeFirst, rangeLast);
+                            return null;
+                        }
+                    }));
+                }
+
+                // digest the written bytes in order while the ranges are fetched
+                final Md5Digest digest = new Md5Digest();
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    public Void call() throws Exception {
+
+                        digestRanges(channel, journal, partSize, digest);
+                        return null;
+                    }
+                }));
+
+                // wait for completion
+                for (Future<Void> future : futures)
+                    future.get();
+                md5Sum = digest.getValue();
+
+            } catch (ExecutionException ex) {
+
+                // re-throw cause
+                if (ex.getCause() instanceof IOException)
+                    throw (IOException) ex.getCause();
+                if (ex.getCause() instanceof InterruptedException)
+                    throw (InterruptedException) ex.getCause();
+                throw new IOException(ex.getCause().getMessage(), ex.getCause());
+
+            } finally {
+
+                executor.shutdownNow();
+            }
+
+            channel.force(false);
+            logger.fine("Download complete");
+        }
+    }
+
+    private void downloadRange(GenericUrl url, FileChannel channel, DownloadJournal journal, long first, long last) throws IOException, InterruptedException {
+
+        long position = journal.getPosition(first);
+        if (position > last)
+            return;
+
+        for (int n = 0; ; ++n) {
+
+            try {
+
+                // request the missing part of the range
+                logger.finer(String.format("Download range %d-%d", position, last));
+                HttpRequest request = requestFactory.buildGetRequest(url);
+                request.getHeaders().setRange(String.format("bytes=%d-%d", position, last));
+                HttpResponse response = request.execute();
+
+                try {
+
+                    // check partial content
+                    if (response.getStatusCode() != 206)
+                        throw new IOException(String.format("Range request not supported (status %d)", response.getStatusCode()));
+
+                    // write at the range offset
+                    InputStream in = response.getContent();
+                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+                    int count;
+                    while (position <= last && (count = in.read(buffer.array(), 0, (int) Math.min(BUFFER, last - position + 1))) != -1) {
+
+                        bandwidthLimiter.acquireDownload(count);
+                        buffer.limit(count);
+                        buffer.position(0);
+                        while (buffer.hasRemaining())
+                            position += channel.write(buffer, position);
+                        journal.commit(first, position);
+                        progress(count);
+                    }
+
+                } finally {
+
+                    response.disconnect();
+                }
+
+                if (position > last)
+                    return;
+
+                throw new EOFException(String.format("Range %d-%d interrupted at %d", first, last, position));
+
+            } catch (HttpResponseException ex) {
+
+                // retry only server errors and rate limits
+                boolean retryable = ex.getStatusCode() >= 500 || ex.getStatusCode() == 429 || DriveSdoImpl.isRetryable(ex.getStatusCode(), getError(ex));
+                if (!retryable || n + 1 >= DriveSdoImpl.MAX_TRIES)
+                    throw ex;
+
+                Thread.sleep(DriveSdoImpl.getBackoffDelay(n));
+
+            } catch (IOException ex) {
+
+                if (n + 1 >= DriveSdoImpl.MAX_TRIES)
+                    throw ex;
+
+                // retry from the last written byte
+                logger.finer(String.format("Retry range %d-%d from %d: %s", first, last, position, ex.getMessage()));
+                Thread.sleep(DriveSdoImpl.getBackoffDelay(n));
+            }
+        }
+    }
+
+    private GoogleJsonError getError(HttpResponseException ex) {
+
+        // details of the error, if any
+        if (ex.getContent() == null)
+            return null;
+
+        try {
+
+            return jsonFactory.fromString(ex.getContent(), GoogleJsonErrorContainer.class).getError();
+
+        } catch (IOException | IllegalArgumentException e) {
+
+            return null;
+        }
+    }
+
+    private void digestRanges(FileChannel channel, DownloadJournal journal, long partSize, Md5Digest digest) throws IOException, InterruptedException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+        long position = 0;
+        while (position < length) {
+
+            // bytes written contiguously after the position
+            long available = journal.getPosition(position / partSize * partSize) - position;
+            if (available <= 0) {
+
+                // wait for the range to progress
+                synchronized (this) {
+
+                    wait(1000);
+                }
+                continue;
+            }
+
+            // read back the bytes just written
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER, available));
+            int count = channel.read(buffer, position);
+            if (count == -1)
+                throw new EOFException(String.format("Unable to read byte %d of the downloaded file", position));
+            digest.update(buffer.array(), 0, count);
+            position += count;
+        }
+    }
+
+    private void progress(long count) {
+
+        // log progress at every percentage point
+        transferMonitor.addBytes(count);
+        int percentage = (int) (bytesDownloaded.addAndGet(count) * 100 / length);
+        synchronized (this) {
+
+            if (percentage > lastPercentage) {
+
+                lastPercentage = percentage;
+                logger.fine(String.format("Progress: %s", MessageFormat.format("{0,number,#%}", percentage / 100d)));
+            }
+
+            // wake up the digest
+            notifyAll();
+        }
+    }
+}
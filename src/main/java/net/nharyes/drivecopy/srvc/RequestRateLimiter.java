@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+@Singleton
+public class RequestRateLimiter {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final String INITIAL_RATE_KEY = "requestRate";
+    private static final String MAX_RATE_KEY = "requestRateMax";
+    private static final double DEFAULT_INITIAL_RATE = 10;
+    private static final double DEFAULT_MAX_RATE = 50;
+    private static final double MIN_RATE = 0.5;
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // token bucket shared by all the requests
+    private RateLimiter rateLimiter;
+
+    // rate bounds (requests per second)
+    private double maxRate;
+
+    // requests are suspended until this time (nanoseconds)
+    private long pausedUntil = System.nanoTime();
+
+    // time of the last rate decrease (nanoseconds)
+    private long lastDecrease = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+
+    // number of throttling responses
+    private AtomicLong throttleCount = new AtomicLong();
+
+    @Inject
+    public RequestRateLimiter(PropertiesConfiguration config) {
+
+        maxRate = Math.max(MIN_RATE, config.getDouble(MAX_RATE_KEY, DEFAULT_MAX_RATE));
+        rateLimiter = RateLimiter.create(Math.min(maxRate, Math.max(MIN_RATE, config.getDouble(INITIAL_RATE_KEY, DEFAULT_INITIAL_RATE))));
+    }
+
+    public double getRate() {
+
+        return rateLimiter.getRate();
+    }
+
+    public long getThrottleCount() {
+
+        return throttleCount.get();
+    }
+
+    public void acquire() throws InterruptedException {
+
+        // wait for the end of a pause requested by the server
+        long delay;
+        synchronized (this) {
+
+            delay = pausedUntil - System.nanoTime();
+        }
+        if (delay > 0)
+            TimeUnit.NANOSECONDS.sleep(delay);
+
+        rateLimiter.acquire();
+    }
+
+    public synchronized void onSuccess() {
+
+        // additive increase: about one request per second every second
+        double rate = rateLimiter.getRate();
+        if (rate < maxRate)
+            rateLimiter.setRate(Math.min(maxRate, rate + 1 / rate));
+    }
+
+    public synchronized void onThrottle(long retryAfter) {
+
+        // multiplicative decrease, once for the throttles of the same burst
+        throttleCount.incrementAndGet();
+        long now = System.nanoTime();
+        if (now - lastDecrease >= DECREASE_INTERVAL_NANOS) {
+
+            double rate = Math.max(MIN_RATE, rateLimiter.getRate() / 2);
+            rateLimiter.setRate(rate);
+            lastDecrease = now;
+            logger.fine(String.format("Requests throttled by the server, rate set to %.2f requests/s", rate));
+        }
+
+        // suspend all the callers as requested by the server
+        if (retryAfter > 0)
+            pausedUntil = Math.max(pausedUntil, now + TimeUnit.MILLISECONDS.toNanos(retryAfter));
+    }
+
+    public static long getRetryAfter(HttpHeaders headers) {
+
+        // only the delay-seconds form is supported
+        Object value = headers != null ? headers.get("retry-after") : null;
+        if (value instanceof Iterable)
+            value = ((Iterable<?>) value).iterator().hasNext() ? ((Iterable<?>) value).iterator().next() : null;
+        if (value == null)
+            return 0;
+
+        try {
+
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.toString().trim()));
+
+        } catch (NumberFormatException ex) {
+
+            return 0;
+        }
+    }
+}
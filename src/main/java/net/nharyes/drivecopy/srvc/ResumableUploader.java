@@ -0,0 +1,388 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.*;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.drive.model.File;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+public class ResumableUploader {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final int STATUS_CODE_RESUME_INCOMPLETE = 308;
+
+    public enum UploadState {
+
+        NOT_STARTED,
+        INITIATION_STARTED,
+        INITIATION_COMPLETE,
+        MEDIA_IN_PROGRESS,
+        MEDIA_COMPLETE
+    }
+
+    // HTTP request factory
+    private HttpRequestFactory requestFactory;
+
+    // JSON factory
+    private JsonFactory jsonFactory;
+
+    // chunk sizer
+    private AdaptiveChunkSizer chunkSizer;
+
+    // progress listener
+    private UploadProgressListener progressListener;
+
+    // local files hasher
+    private FileHasher fileHasher;
+
+    // upload state
+    private UploadState uploadState = UploadState.NOT_STARTED;
+
+    // bytes confirmed by the server
+    private long bytesUploaded;
+
+    // time spent sending the last chunk
+    private long chunkNanos;
+
+    // media length
+    private long length;
+
+    // digest of the uploaded bytes
+    private Md5Digest digest;
+
+    // MD5 summary of the uploaded media
+    private String md5Sum;
+
+    public ResumableUploader(HttpRequestFactory requestFactory, JsonFactory jsonFactory, AdaptiveChunkSizer chunkSizer, UploadProgressListener progressListener, FileHasher fileHasher) {
+
+        this.requestFactory = requestFactory;
+        this.jsonFactory = jsonFactory;
+        this.chunkSizer = chunkSizer;
+        this.progressListener = progressListener;
+        this.fileHasher = fileHasher;
+    }
+
+    public UploadState getUploadState() {
+
+        return uploadState;
+    }
+
+    public long getNumBytesUploaded() {
+
+        return bytesUploaded;
+    }
+
+    public long getLastChunkNanos() {
+
+        return chunkNanos;
+    }
+
+    public boolean isLengthKnown() {
+
+        return length >= 0;
+    }
+
+    public String getMd5Sum() {
+
+        return md5Sum;
+    }
+
+    public double getProgress() {
+
+        return length > 0 ? (double) bytesUploaded / length : length == 0 ? 1 : 0;
+    }
+
+    private void updateState(UploadState state) throws IOException {
+
+        uploadState = state;
+        progressListener.progressChanged(this);
+    }
+
+    public File upload(String method, GenericUrl initiationUrl, File metadata, String mimeType, java.io.File source, UploadJournal journal) throws IOException {
+
+        length = source.length();
+        bytesUploaded = 0;
+        digest = new Md5Digest();
+
+        // try to resume the session of a previous run
+        GenericUrl sessionUrl = null;
+        if (journal.getSessionUri() != null) {
+
+            sessionUrl = new GenericUrl(journal.getSessionUri());
+            HttpResponse response = queryOffset(sessionUrl);
+            if (response == null) {
+
+                // session expired
+                logger.fine("Previous upload session expired");
+                journal.clearSession();
+                sessionUrl = null;
+
+            } else if (response.getStatusCode() != STATUS_CODE_RESUME_INCOMPLETE) {
+
+                // upload already completed
+                fileHasher.update(digest, source, length);
+                md5Sum = digest.getValue();
+                bytesUploaded = length;
+                updateState(UploadState.MEDIA_COMPLETE);
+                journal.delete();
+                return response.parseAs(File.class);
+
+            } else
+                logger.fine(String.format("Resume previous upload from byte %d", bytesUploaded));
+        }
+
+        // initiate new session
+        if (sessionUrl == null) {
+
+            updateState(UploadState.INITIATION_STARTED);
+            sessionUrl = initiate(method, initiationUrl, metadata, mimeType);
+            journal.setSessionUri(sessionUrl.build());
+        }
+        updateState(UploadState.INITIATION_COMPLETE);
+
+        // the bytes committed by a previous run are only digested
+        fileHasher.update(digest, source, bytesUploaded);
+
+        // upload chunks from the first byte not committed
+        try (FileInputStream in = new FileInputStream(source)) {
+
+            in.getChannel().position(bytesUploaded);
+            File file = uploadChunks(sessionUrl, mimeType, in, journal);
+            journal.delete();
+
+            return file;
+        }
+    }
+
+    public File upload(String method, GenericUrl initiationUrl, File metadata, String mimeType, InputStream in) throws IOException {
+
+        // length known only at the end of the stream
+        length = -1;
+        bytesUploaded = 0;
+        digest = new Md5Digest();
+
+        // initiate session
+        updateState(UploadState.INITIATION_STARTED);
+        GenericUrl sessionUrl = initiate(method, initiationUrl, metadata, mimeType);
+        updateState(UploadState.INITIATION_COMPLETE);
+
+        return uploadChunks(sessionUrl, mimeType, in, null);
+    }
+
+    private File uploadChunks(GenericUrl sessionUrl, String mimeType, InputStream in, UploadJournal journal) throws IOException {
+
+        // bytes read but not committed yet, starting at the confirmed offset
+        byte[] buffer = new byte[0];
+        int buffered = 0;
+        boolean eof = false;
+        while (true) {
+
+            // fill the chunk
+            int size = chunkSizer.getChunkSize();
+            if (buffer.length < size)
+                buffer = Arrays.copyOf(buffer, size);
+            while (buffered < size && !eof) {
+
+                int count = in.read(buffer, buffered, size - buffered);
+                if (count == -1)
+                    eof = true;
+                else
+                    buffered += count;
+            }
+
+            // the length is known with the last chunk
+            int chunk = Math.min(buffered, size);
+            if (eof && chunk == buffered)
+                length = bytesUploaded + buffered;
+
+            // send chunk
+            long start = System.nanoTime();
+            long sent = bytesUploaded;
+            HttpResponse response = sendChunkWithRetry(sessionUrl, mimeType, buffer, chunk);
+            chunkNanos = System.nanoTime() - start;
+            if (response.getStatusCode() != STATUS_CODE_RESUME_INCOMPLETE) {
+
+                // upload completed
+                digest.update(buffer, 0, chunk);
+                md5Sum = digest.getValue();
+                bytesUploaded = length;
+                updateState(UploadState.MEDIA_COMPLETE);
+                return response.parseAs(File.class);
+            }
+
+            // keep the bytes not committed by the server
+            int committed = (int) (bytesUploaded - sent);
+            if (committed < 0)
+                throw new IOException(String.format("Upload session lost the bytes committed after byte %d", bytesUploaded));
+            digest.update(buffer, 0, committed);
+            System.arraycopy(buffer, committed, buffer, 0, buffered - committed);
+            buffered -= committed;
+
+            // adapt chunk size to the measured throughput
+            chunkSizer.update(committed, chunkNanos);
+            if (journal != null)
+                journal.commit(bytesUploaded);
+            updateState(UploadState.MEDIA_IN_PROGRESS);
+        }
+    }
+
+    private GenericUrl initiate(String method, GenericUrl initiationUrl, File metadata, String mimeType) throws IOException {
+
+        GenericUrl url = initiationUrl.clone();
+        url.put("uploadType", "resumable");
+
+        // send metadata
+        HttpRequest request = requestFactory.buildRequest(method, url, new JsonHttpContent(jsonFactory, metadata));
+        request.getHeaders().set("X-Upload-Content-Type", mimeType);
+        if (length >= 0)
+            request.getHeaders().set("X-Upload-Content-Length", length);
+        HttpResponse response = checkResponse(execute(request));
+
+        try {
+
+            // session URI
+            return new GenericUrl(response.getHeaders().getLocation());
+
+        } finally {
+
+            response.disconnect();
+        }
+    }
+
+    private HttpResponse queryOffset(GenericUrl sessionUrl) throws IOException {
+
+        // empty request with unknown range
+        HttpRequest request = requestFactory.buildPutRequest(sessionUrl, new EmptyContent());
+        request.getHeaders().setContentRange(String.format("bytes */%s", length >= 0 ? String.valueOf(length) : "*"));
+
+        HttpResponse response = execute(request);
+        if (response.getStatusCode() == 404 || response.getStatusCode() == 410) {
+
+            response.disconnect();
+            return null;
+        }
+
+        return checkResponse(response);
+    }
+
+    private HttpResponse sendChunkWithRetry(GenericUrl sessionUrl, String mimeType, byte[] buffer, int size) throws IOException {
+
+        for (int n = 0; ; ++n) {
+
+            try {
+
+                if (n == 0)
+                    return sendChunk(sessionUrl, mimeType, buffer, size);
+
+                // ask the session for the committed offset, the loop resends only the missing bytes
+                HttpResponse response = queryOffset(sessionUrl);
+                if (response == null)
+                    throw new IOException("Upload session expired");
+
+                return response;
+
+            } catch (IOException ex) {
+
+                if (!isRetryable(ex) || n + 1 >= DriveSdoImpl.MAX_TRIES)
+                    throw ex;
+
+                logger.fine(String.format("Retry chunk at byte %d: %s", bytesUploaded, ex.getMessage()));
+                try {
+
+                    Thread.sleep(DriveSdoImpl.getBackoffDelay(n));
+
+                } catch (InterruptedException ie) {
+
+                    throw new InterruptedIOException(ie.getMessage());
+                }
+            }
+        }
+    }
+
+    private static boolean isRetryable(IOException ex) {
+
+        // server errors and rate limits
+        if (ex instanceof GoogleJsonResponseException) {
+
+            GoogleJsonResponseException jex = (GoogleJsonResponseException) ex;
+            return jex.getStatusCode() == 429 || jex.getStatusCode() >= 500 || DriveSdoImpl.isRetryable(jex.getStatusCode(), jex.getDetails());
+        }
+
+        // network errors and timeouts, but not interruptions
+        if (ex instanceof SocketTimeoutException)
+            return true;
+
+        return !(ex instanceof HttpResponseException) && !(ex instanceof InterruptedIOException);
+    }
+
+    private HttpResponse sendChunk(GenericUrl sessionUrl, String mimeType, byte[] buffer, int size) throws IOException {
+
+        HttpRequest request = requestFactory.buildPutRequest(sessionUrl, new ByteArrayContent(mimeType, buffer, 0, size));
+        String total = length >= 0 ? String.valueOf(length) : "*";
+        if (size == 0)
+            request.getHeaders().setContentRange(String.format("bytes */%s", total));
+        else
+            request.getHeaders().setContentRange(String.format("bytes %d-%d/%s", bytesUploaded, bytesUploaded + size - 1, total));
+
+        return checkResponse(execute(request));
+    }
+
+    private HttpResponse execute(HttpRequest request) throws IOException {
+
+        // the resume incomplete status is handled here
+        request.setFollowRedirects(false);
+        request.setThrowExceptionOnExecuteError(false);
+        request.setParser(jsonFactory.createJsonObjectParser());
+
+        return request.execute();
+    }
+
+    private HttpResponse checkResponse(HttpResponse response) throws IOException {
+
+        if (response.getStatusCode() == STATUS_CODE_RESUME_INCOMPLETE) {
+
+            // read the offset confirmed by the server
+            String range = response.getHeaders().getRange();
+            bytesUploaded = range == null ? 0 : Long.parseLong(range.substring(range.indexOf('-') + 1)) + 1;
+            response.disconnect();
+
+            return response;
+        }
+
+        if (!response.isSuccessStatusCode())
+            throw GoogleJsonResponseException.from(jsonFactory, response);
+
+        return response;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import com.google.inject.Singleton;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+@Singleton
+public class TransferMonitor {
+
+    /*
+     * Constants
+     */
+    private static final double RATE_WEIGHT = 0.3;
+
+    // bytes uploaded and downloaded by all the transfers
+    private AtomicLong bytes = new AtomicLong();
+
+    // smoothed upload rate (bytes per second), 0 if unknown
+    private volatile double uploadRate;
+
+    public void addBytes(long count) {
+
+        bytes.addAndGet(count);
+    }
+
+    public synchronized void addUploadedBytes(long count, long elapsedNanos) {
+
+        addBytes(count);
+
+        // rate of the chunk just sent, pauses between chunks don't count
+        if (count <= 0 || elapsedNanos <= 0)
+            return;
+        double rate = count * 1e9 / elapsedNanos;
+        uploadRate = uploadRate == 0 ? rate : (1 - RATE_WEIGHT) * uploadRate + RATE_WEIGHT * rate;
+    }
+
+    public long getBytes() {
+
+        return bytes.get();
+    }
+
+    public double getUploadRate() {
+
+        // the last rate observed, even if no upload is running
+        return uploadRate;
+    }
+}
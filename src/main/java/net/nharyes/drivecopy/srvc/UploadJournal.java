@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import com.google.common.hash.Hashing;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class UploadJournal {
+
+    /*
+     * Logger
+     */
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+
+    /*
+     * Constants
+     */
+    private static final String SUFFIX = ".journal";
+    private static final String SOURCE_KEY = "source";
+    private static final String SESSION_URI_KEY = "sessionUri";
+    private static final String TARGET_KEY = "target";
+    private static final String LENGTH_KEY = "length";
+    private static final String LAST_MODIFIED_KEY = "lastModified";
+    private static final String CREATED_KEY = "created";
+    private static final String OFFSET_KEY = "offset";
+    private static final long SESSION_LIFETIME = TimeUnit.DAYS.toMillis(6);
+
+    // journal file
+    private File file;
+
+    // journal content
+    private Properties properties = new Properties();
+
+    private UploadJournal(File file) {
+
+        this.file = file;
+    }
+
+    public static UploadJournal open(File directory, File source, String target) {
+
+        // one journal for each source file and remote target, outside the source tree
+        String key = Hashing.sha256().hashString(source.getAbsolutePath() + "\n" + target, StandardCharsets.UTF_8).toString();
+        UploadJournal journal = new UploadJournal(new File(directory, key + SUFFIX));
+
+        // load previous journal
+        boolean valid = false;
+        if (journal.file.exists()) {
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(journal.file))) {
+
+                journal.properties.load(in);
+
+                // reuse the session only for the same unchanged file and remote target
+                valid = target.equals(journal.properties.getProperty(TARGET_KEY)) && String.valueOf(source.length()).equals(journal.properties.getProperty(LENGTH_KEY)) && String.valueOf(source.lastModified()).equals(journal.properties.getProperty(LAST_MODIFIED_KEY)) && System.currentTimeMillis() - Long.parseLong(journal.properties.getProperty(CREATED_KEY, "0")) < SESSION_LIFETIME;
+
+            } catch (IOException | NumberFormatException ex) {
+
+                journal.logger.log(Level.WARNING, String.format("Unable to read upload journal '%s'", journal.file.getAbsolutePath()), ex);
+            }
+        }
+
+        // start a new journal
+        if (!valid) {
+
+            journal.properties.clear();
+            journal.properties.setProperty(SOURCE_KEY, source.getAbsolutePath());
+            journal.properties.setProperty(TARGET_KEY, target);
+            journal.properties.setProperty(LENGTH_KEY, String.valueOf(source.length()));
+            journal.properties.setProperty(LAST_MODIFIED_KEY, String.valueOf(source.lastModified()));
+        }
+
+        return journal;
+    }
+
+    public String getSessionUri() {
+
+        return properties.getProperty(SESSION_URI_KEY);
+    }
+
+    public void setSessionUri(String sessionUri) {
+
+        properties.setProperty(SESSION_URI_KEY, sessionUri);
+        properties.setProperty(CREATED_KEY, String.valueOf(System.currentTimeMillis()));
+        properties.setProperty(OFFSET_KEY, "0");
+        save();
+    }
+
+    public void commit(long offset) {
+
+        properties.setProperty(OFFSET_KEY, String.valueOf(offset));
+        save();
+    }
+
+    public void clearSession() {
+
+        properties.remove(SESSION_URI_KEY);
+        properties.remove(OFFSET_KEY);
+    }
+
+    private void save() {
+
+        try {
+
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+                throw new IOException(String.format("Unable to create directory '%s'", file.getParentFile().getAbsolutePath()));
+
+            // write to a temporary file then replace the journal
+            File temp = new File(file.getAbsolutePath() + ".tmp");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+
+                properties.store(out, "DriveCopy upload journal");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        } catch (IOException ex) {
+
+            // the upload goes on, it just can't be resumed by a later run
+            logger.log(Level.WARNING, String.format("Unable to save upload journal '%s'", file.getAbsolutePath()), ex);
+        }
+    }
+
+    public void delete() {
+
+        if (file.exists() && !file.delete())
+            logger.finer("Unable to delete upload journal...");
+    }
+}
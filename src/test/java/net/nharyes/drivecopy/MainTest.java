@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class MainTest {
+
+    @Test
+    public void splitsOnWhiteSpaces() throws ParseException {
+
+        assertArrayEquals(new String[]{"-f", "a.txt", "upload", "Folder/a.txt"}, Main.splitManifestLine("-f  a.txt\tupload Folder/a.txt"));
+    }
+
+    @Test
+    public void keepsWhiteSpacesInsideQuotes() throws ParseException {
+
+        assertArrayEquals(new String[]{"-f", "my file.txt", "upload", "My Folder/it's.txt"}, Main.splitManifestLine("-f \"my file.txt\" upload \"My Folder/it's.txt\""));
+        assertArrayEquals(new String[]{"-d", "a \"b\" c", "upload"}, Main.splitManifestLine("-d 'a \"b\" c' upload"));
+    }
+
+    @Test
+    public void joinsQuotedAndUnquotedParts() throws ParseException {
+
+        assertArrayEquals(new String[]{"--file=my file.txt", "upload"}, Main.splitManifestLine("--file=\"my file.txt\" upload"));
+    }
+
+    @Test
+    public void keepsEmptyQuotedArguments() throws ParseException {
+
+        assertArrayEquals(new String[]{"-f", "", "upload"}, Main.splitManifestLine("-f \"\" upload"));
+    }
+
+    @Test(expected = ParseException.class)
+    public void rejectsUnterminatedQuotes() throws ParseException {
+
+        Main.splitManifestLine("-f \"a.txt upload");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.bo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ArchiveFormatTest {
+
+    private static ArchiveFormat detect(int... bytes) {
+
+        byte[] data = new byte[ArchiveFormat.MAGIC_LENGTH];
+        for (int i = 0; i < bytes.length && i < data.length; i++)
+            data[i] = (byte) bytes[i];
+
+        return ArchiveFormat.fromMagic(data, bytes.length);
+    }
+
+    @Test
+    public void detectsCompressedStreams() {
+
+        assertEquals(ArchiveFormat.TAR_ZSTD, detect(0x28, 0xB5, 0x2F, 0xFD));
+        assertEquals(ArchiveFormat.TAR_LZ4, detect(0x04, 0x22, 0x4D, 0x18));
+    }
+
+    @Test
+    public void defaultsToZip() {
+
+        assertEquals(ArchiveFormat.ZIP, detect(0x50, 0x4B, 0x03, 0x04));
+        assertEquals(ArchiveFormat.ZIP, detect(0x50, 0x4B, 0x05, 0x06));
+        assertEquals(ArchiveFormat.ZIP, detect(0x28, 0xB5, 0x2F, 0xFE));
+    }
+
+    @Test
+    public void shortStreamsAreZip() {
+
+        assertEquals(ArchiveFormat.ZIP, detect());
+        assertEquals(ArchiveFormat.ZIP, detect(0x28, 0xB5, 0x2F));
+    }
+
+    @Test
+    public void formatsFromNamesAndEntries() {
+
+        assertEquals(ArchiveFormat.TAR_ZSTD, ArchiveFormat.fromName("ZSTD"));
+        assertNull(ArchiveFormat.fromName("rar"));
+        assertEquals(ArchiveFormat.TAR_LZ4, ArchiveFormat.fromEntry("application/x-lz4-compressed-tar", "backup"));
+        assertEquals(ArchiveFormat.TAR_ZSTD, ArchiveFormat.fromEntry("application/octet-stream", "Backups/home.TAR.ZST"));
+        assertNull(ArchiveFormat.fromEntry("application/octet-stream", "home.tar"));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ChunkerTest {
+
+    private static byte[] random(int length, long seed) {
+
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+
+        return data;
+    }
+
+    private static List<byte[]> split(InputStream in) throws IOException {
+
+        List<byte[]> chunks = new ArrayList<>();
+        Chunker chunker = new Chunker(in);
+        byte[] chunk;
+        while ((chunk = chunker.next()) != null)
+            chunks.add(chunk);
+
+        return chunks;
+    }
+
+    private static Set<ByteBuffer> asSet(List<byte[]> chunks) {
+
+        Set<ByteBuffer> set = new HashSet<>();
+        for (byte[] chunk : chunks)
+            set.add(ByteBuffer.wrap(chunk));
+
+        return set;
+    }
+
+    @Test
+    public void chunksRebuildTheContent() throws IOException {
+
+        byte[] data = random(20 * 1024 * 1024, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] chunk : split(new ByteArrayInputStream(data)))
+            out.write(chunk);
+
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void chunksAreWithinBounds() throws IOException {
+
+        List<byte[]> chunks = split(new ByteArrayInputStream(random(20 * 1024 * 1024, 2)));
+        assertTrue(chunks.size() > 1);
+        for (int i = 0; i < chunks.size(); i++) {
+
+            // only the last chunk can be shorter than the minimum
+            assertTrue(chunks.get(i).length <= Chunker.MAX_SIZE);
+            if (i < chunks.size() - 1)
+                assertTrue(chunks.get(i).length >= Chunker.MIN_SIZE);
+        }
+    }
+
+    @Test
+    public void uniformContentIsCutAtTheMaximumSize() throws IOException {
+
+        List<byte[]> chunks = split(new ByteArrayInputStream(new byte[10 * 1024 * 1024]));
+        assertEquals(3, chunks.size());
+        assertEquals(Chunker.MAX_SIZE, chunks.get(0).length);
+        assertEquals(Chunker.MAX_SIZE, chunks.get(1).length);
+        assertEquals(2 * 1024 * 1024, chunks.get(2).length);
+    }
+
+    @Test
+    public void shortReadsGiveTheSameChunks() throws IOException {
+
+        byte[] data = random(10 * 1024 * 1024, 3);
+        InputStream slow = new FilterInputStream(new ByteArrayInputStream(data)) {
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+
+        assertEquals(asSet(split(new ByteArrayInputStream(data))), asSet(split(slow)));
+    }
+
+    @Test
+    public void sameContentAtDifferentOffsetsGivesTheSameChunks() throws IOException {
+
+        // the same content after a prefix of a few bytes
+        byte[] data = random(30 * 1024 * 1024, 4);
+        ByteArrayOutputStream shifted = new ByteArrayOutputStream();
+        shifted.write(random(1234, 5));
+        shifted.write(data);
+
+        // only the chunks around the prefix differ
+        List<byte[]> chunks = split(new ByteArrayInputStream(data));
+        Set<ByteBuffer> shiftedChunks = asSet(split(new ByteArrayInputStream(shifted.toByteArray())));
+        int shared = 0;
+        for (byte[] chunk : chunks)
+            if (shiftedChunks.contains(ByteBuffer.wrap(chunk)))
+                shared++;
+        assertTrue(String.format("%d of %d chunks shared", shared, chunks.size()), shared >= chunks.size() - 2);
+    }
+
+    @Test
+    public void resetStartsANewStream() throws IOException {
+
+        // a stream left half read must not leak into the next one
+        byte[] first = random(10 * 1024 * 1024, 6);
+        byte[] second = random(10 * 1024 * 1024, 7);
+        Chunker chunker = new Chunker(new ByteArrayInputStream(first));
+        assertNotNull(chunker.next());
+        chunker.reset(new ByteArrayInputStream(second));
+
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] chunk;
+        while ((chunk = chunker.next()) != null)
+            chunks.add(chunk);
+        assertEquals(asSet(split(new ByteArrayInputStream(second))), asSet(chunks));
+    }
+}
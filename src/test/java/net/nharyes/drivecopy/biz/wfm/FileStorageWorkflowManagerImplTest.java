@@ -0,0 +1,270 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import net.nharyes.drivecopy.biz.bo.ArchiveFormat;
+import net.nharyes.drivecopy.biz.bo.EntryBO;
+import net.nharyes.drivecopy.biz.bo.FileBO;
+import net.nharyes.drivecopy.biz.bo.TokenBO;
+import net.nharyes.drivecopy.biz.exc.WorkflowManagerException;
+import net.nharyes.drivecopy.srvc.DriveSdo;
+import net.nharyes.drivecopy.srvc.FileHasher;
+import net.nharyes.drivecopy.srvc.RequestRateLimiter;
+import net.nharyes.drivecopy.srvc.TransferMonitor;
+import net.nharyes.drivecopy.srvc.exc.ItemNotFoundException;
+import net.nharyes.drivecopy.srvc.exc.SdoException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FileStorageWorkflowManagerImplTest {
+
+    // entries of an in-memory Drive
+    private static class MemoryDriveSdo implements DriveSdo {
+
+        private final Map<String, EntryBO> entries = new HashMap<>();
+
+        private final Map<String, byte[]> contents = new HashMap<>();
+
+        private static String md5(byte[] data) throws SdoException {
+
+            try {
+
+                return String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(data)));
+
+            } catch (NoSuchAlgorithmException ex) {
+
+                throw new SdoException(ex.getMessage(), ex);
+            }
+        }
+
+        private EntryBO store(EntryBO entry, String id) throws SdoException {
+
+            try {
+
+                // read the content to upload
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                try (InputStream in = entry.getInputStream() != null ? entry.getInputStream() : new FileInputStream(entry.getFile())) {
+
+                    byte[] buffer = new byte[64 * 1024];
+                    int count;
+                    while ((count = in.read(buffer)) != -1)
+                        content.write(buffer, 0, count);
+                }
+
+                EntryBO stored = new EntryBO();
+                stored.setId(id);
+                stored.setName(entry.getName());
+                stored.setMimeType(entry.getMimeType());
+                stored.setMd5Sum(md5(content.toByteArray()));
+                entries.put(id, stored);
+                contents.put(id, content.toByteArray());
+
+                EntryBO result = new EntryBO();
+                result.setId(id);
+                result.setName(entry.getName());
+                result.setFile(entry.getFile());
+                result.setMimeType(entry.getMimeType());
+                result.setMd5Sum(stored.getMd5Sum());
+                result.setLocalMd5Sum(stored.getMd5Sum());
+                return result;
+
+            } catch (IOException ex) {
+
+                throw new SdoException(ex.getMessage(), ex);
+            }
+        }
+
+        public EntryBO downloadEntry(TokenBO token, EntryBO entry) throws SdoException {
+
+            byte[] content = contents.get(entry.getId());
+            try (OutputStream out = entry.getOutputStream() != null ? entry.getOutputStream() : new FileOutputStream(entry.getFile())) {
+
+                out.write(content);
+
+            } catch (IOException ex) {
+
+                throw new SdoException(ex.getMessage(), ex);
+            }
+            entry.setLocalMd5Sum(md5(content));
+
+            return entry;
+        }
+
+        public EntryBO uploadEntry(TokenBO token, EntryBO entry, String parentId) throws SdoException {
+
+            return store(entry, parentId + "/" + entry.getName());
+        }
+
+        public EntryBO updateEntry(TokenBO token, EntryBO entry) throws SdoException {
+
+            return store(entry, entry.getId());
+        }
+
+        public EntryBO searchEntry(TokenBO token, String name, String parentId) throws SdoException {
+
+            EntryBO stored = entries.get(parentId + "/" + name);
+            if (stored == null)
+                throw new ItemNotFoundException(String.format("Entry '%s' not found", name));
+
+            EntryBO entry = new EntryBO();
+            entry.setId(stored.getId());
+            entry.setName(stored.getName());
+            entry.setMimeType(stored.getMimeType());
+            entry.setMd5Sum(stored.getMd5Sum());
+            return entry;
+        }
+
+        public List<EntryBO> listEntries(TokenBO token, String parentId) {
+
+            return new ArrayList<>();
+        }
+
+        public Map<String, List<EntryBO>> listEntries(TokenBO token, List<String> parentIds) {
+
+            Map<String, List<EntryBO>> listings = new HashMap<>();
+            for (String parentId : parentIds)
+                listings.put(parentId, listEntries(token, parentId));
+
+            return listings;
+        }
+
+        public void trashEntries(TokenBO token, List<String> ids) {
+
+            for (String id : ids) {
+
+                entries.remove(id);
+                contents.remove(id);
+            }
+        }
+
+        public String getLastFolderId(TokenBO token, String[] folders, String rootId, boolean createIfNotFound) {
+
+            StringBuilder id = new StringBuilder(rootId);
+            if (folders != null)
+                for (String folder : folders)
+                    id.append("/").append(folder);
+
+            return id.toString();
+        }
+    }
+
+    // Drive
+    private MemoryDriveSdo driveSdo = new MemoryDriveSdo();
+
+    private FileStorageWorkflowManager fileStorageWorkflowManager;
+
+    // local directory and restored copy
+    private File directory;
+    private File restored;
+
+    @Before
+    public void setUp() throws IOException {
+
+        PropertiesConfiguration config = new PropertiesConfiguration();
+        config.setProperty("digestCache", false);
+        TokenWorkflowManager tokenWorkflowManager = new TokenWorkflowManager() {
+
+            public TokenBO handleWorkflow(TokenBO businessObject, int action) {
+
+                return businessObject;
+            }
+        };
+        TransferMonitor transferMonitor = new TransferMonitor();
+        fileStorageWorkflowManager = new FileStorageWorkflowManagerImpl(driveSdo, new DirectoryCompressorWorkflowManagerImpl(transferMonitor), tokenWorkflowManager,
+                new DigestWorkflowManagerImpl(new DigestCache(config), new FileHasher(config)), null, transferMonitor, new RequestRateLimiter(config), config);
+
+        directory = Files.createTempDirectory("drivecopy-dir").toFile();
+        restored = new File(Files.createTempDirectory("drivecopy-restore").toFile(), "home");
+    }
+
+    @After
+    public void tearDown() {
+
+        delete(directory);
+        delete(restored.getParentFile());
+    }
+
+    private static void delete(File f) {
+
+        File[] files = f.listFiles();
+        if (files != null)
+            for (File fl : files)
+                delete(fl);
+        f.delete();
+    }
+
+    private void write(String name, String content) throws IOException {
+
+        File f = new File(directory, name);
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private FileBO directoryBO(File f, ArchiveFormat format) {
+
+        FileBO file = new FileBO();
+        file.setFile(f);
+        file.setDirectory(true);
+        file.setName("Backups/home");
+        file.setCompressionLevel(6);
+        file.setFormat(format);
+
+        return file;
+    }
+
+    @Test
+    public void replacingWithAnotherFormatUpdatesTheMimeType() throws Exception {
+
+        write("a.txt", "first");
+        fileStorageWorkflowManager.handleWorkflow(directoryBO(directory, ArchiveFormat.ZIP), FileStorageWorkflowManager.ACTION_UPLOAD);
+        assertEquals(ArchiveFormat.ZIP.getMimeType(), driveSdo.entries.get("root/Backups/home").getMimeType());
+
+        // replace the ZIP archive with a tar+zstd one
+        write("a.txt", "second");
+        write("sub/b.txt", "new file");
+        fileStorageWorkflowManager.handleWorkflow(directoryBO(directory, ArchiveFormat.TAR_ZSTD), FileStorageWorkflowManager.ACTION_REPLACE);
+        assertEquals(ArchiveFormat.TAR_ZSTD.getMimeType(), driveSdo.entries.get("root/Backups/home").getMimeType());
+
+        // the restore reads the new format
+        fileStorageWorkflowManager.handleWorkflow(directoryBO(restored, null), FileStorageWorkflowManager.ACTION_DOWNLOAD);
+        assertEquals("second", new String(Files.readAllBytes(new File(restored, "a.txt").toPath()), StandardCharsets.UTF_8));
+        assertEquals("new file", new String(Files.readAllBytes(new File(restored, "sub/b.txt").toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = WorkflowManagerException.class)
+    public void restoreFailsWhenTheMimeTypeDisagreesWithTheContent() throws Exception {
+
+        write("a.txt", "content");
+        fileStorageWorkflowManager.handleWorkflow(directoryBO(directory, ArchiveFormat.TAR_ZSTD), FileStorageWorkflowManager.ACTION_UPLOAD);
+
+        // a tar+zstd archive marked as ZIP
+        driveSdo.entries.get("root/Backups/home").setMimeType(ArchiveFormat.ZIP.getMimeType());
+        fileStorageWorkflowManager.handleWorkflow(directoryBO(restored, null), FileStorageWorkflowManager.ACTION_DOWNLOAD);
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class ParallelZipWriterTest {
+
+    // length of the entries needing ZIP64 sizes
+    private static final long LARGE_LENGTH = 0x100000000L + 1024 * 1024;
+
+    // directory of the test files
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("drivecopy-zip").toFile();
+    }
+
+    @After
+    public void tearDown() {
+
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        directory.delete();
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+
+        File f = new File(directory, name);
+        Files.write(f.toPath(), content);
+
+        return f;
+    }
+
+    private static byte[] random(int length) {
+
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+
+        return data;
+    }
+
+    private static byte[] text(int length) {
+
+        StringBuilder text = new StringBuilder();
+        for (int n = 0; text.length() < length; n++)
+            text.append(String.format("line %d of a compressible text file%n", n));
+
+        return text.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static Map<String, ZipEntry> read(byte[] zip, Map<String, byte[]> contents) throws IOException {
+
+        // read the archive sequentially, as the decompression does
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = in.read(buffer)) != -1)
+                    content.write(buffer, 0, count);
+                entries.put(entry.getName(), entry);
+                contents.put(entry.getName(), content.toByteArray());
+            }
+        }
+
+        return entries;
+    }
+
+    @Test
+    public void roundTripDeflatedAndStoredEntries() throws IOException {
+
+        // text spanning several blocks, random data, a media file and an entry from memory
+        byte[] text = text(3 * 1024 * 1024 + 123);
+        byte[] noise = random(2 * 1024 * 1024);
+        byte[] image = text(1000);
+        byte[] data = "deleted.txt\n".getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelZipWriter writer = new ParallelZipWriter(out, 6, 4);
+        writer.addFile("dir/text.txt", write("text.txt", text));
+        writer.addFile("noise.bin", write("noise.bin", noise));
+        writer.addFile("dir/image.jpg", write("image.jpg", image));
+        writer.addData(".deleted", data);
+        writer.finish();
+
+        Map<String, byte[]> contents = new HashMap<>();
+        Map<String, ZipEntry> entries = read(out.toByteArray(), contents);
+        assertEquals(Arrays.asList("dir/text.txt", "noise.bin", "dir/image.jpg", ".deleted"), new ArrayList<>(entries.keySet()));
+        assertArrayEquals(text, contents.get("dir/text.txt"));
+        assertArrayEquals(noise, contents.get("noise.bin"));
+        assertArrayEquals(image, contents.get("dir/image.jpg"));
+        assertArrayEquals(data, contents.get(".deleted"));
+
+        // incompressible entries are stored
+        assertEquals(ZipEntry.DEFLATED, entries.get("dir/text.txt").getMethod());
+        assertEquals(ZipEntry.STORED, entries.get("noise.bin").getMethod());
+        assertEquals(ZipEntry.STORED, entries.get("dir/image.jpg").getMethod());
+        assertTrue(out.size() < text.length / 4 + noise.length + image.length + 64 * 1024);
+    }
+
+    @Test
+    public void levelZeroStoresAllTheEntries() throws IOException {
+
+        byte[] text = text(100000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelZipWriter writer = new ParallelZipWriter(out, 0, 2);
+        writer.addFile("text.txt", write("text.txt", text));
+        writer.addData("data", text);
+        writer.finish();
+
+        Map<String, byte[]> contents = new HashMap<>();
+        Map<String, ZipEntry> entries = read(out.toByteArray(), contents);
+        assertEquals(ZipEntry.STORED, entries.get("text.txt").getMethod());
+        assertEquals(ZipEntry.STORED, entries.get("data").getMethod());
+        assertArrayEquals(text, contents.get("text.txt"));
+        assertArrayEquals(text, contents.get("data"));
+    }
+
+    @Test
+    public void defaultLevelIsAccepted() throws IOException {
+
+        byte[] text = text(100000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelZipWriter writer = new ParallelZipWriter(out, -1, 2);
+        writer.addData("data", text);
+        writer.finish();
+
+        Map<String, byte[]> contents = new HashMap<>();
+        assertEquals(ZipEntry.DEFLATED, read(out.toByteArray(), contents).get("data").getMethod());
+        assertArrayEquals(text, contents.get("data"));
+    }
+
+    @Test
+    public void emptyEntriesAreKept() throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelZipWriter writer = new ParallelZipWriter(out, 6, 2);
+        writer.addFile("empty.txt", write("empty.txt", new byte[0]));
+        writer.addData("data", new byte[0]);
+        writer.finish();
+
+        Map<String, byte[]> contents = new HashMap<>();
+        Map<String, ZipEntry> entries = read(out.toByteArray(), contents);
+        assertEquals(2, entries.size());
+        assertEquals(0, contents.get("empty.txt").length);
+        assertEquals(0, contents.get("data").length);
+    }
+
+    @Test
+    public void manyEntriesUseTheZip64EndRecord() throws IOException {
+
+        // more entries than the 16 bits count of the end record
+        int count = 70000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelZipWriter writer = new ParallelZipWriter(out, 1, 4);
+        for (int n = 0; n < count; n++)
+            writer.addData(String.format("entries/%d.txt", n), String.valueOf(n).getBytes(StandardCharsets.US_ASCII));
+        writer.finish();
+
+        Map<String, byte[]> contents = new HashMap<>();
+        assertEquals(count, read(out.toByteArray(), contents).size());
+        assertEquals("69999", new String(contents.get("entries/69999.txt"), StandardCharsets.US_ASCII));
+
+        // the central directory is found through the ZIP64 end record
+        File zip = write("many.zip", out.toByteArray());
+        try (ZipFile zipFile = new ZipFile(zip)) {
+
+            assertEquals(count, zipFile.size());
+        }
+    }
+
+    private File sparse(String name) throws IOException {
+
+        // a sparse file larger than 4 GB
+        File big = new File(directory, name);
+        try (RandomAccessFile raf = new RandomAccessFile(big, "rw")) {
+
+            raf.setLength(LARGE_LENGTH);
+            raf.seek(LARGE_LENGTH - 4);
+            raf.writeInt(0x12345678);
+        }
+
+        return big;
+    }
+
+    private static long crc(File f) throws IOException {
+
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+
+            int count;
+            while ((count = in.read(buffer)) != -1)
+                crc.update(buffer, 0, count);
+        }
+
+        return crc.getValue();
+    }
+
+    private static long[] zipLarge(File big) throws Exception {
+
+        // the archive is read while it is written
+        final PipedInputStream pin = new PipedInputStream(1024 * 1024);
+        PipedOutputStream pout = new PipedOutputStream(pin);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+
+            Future<long[]> result = executor.submit(new Callable<long[]>() {
+
+                public long[] call() throws IOException {
+
+                    try (ZipInputStream in = new ZipInputStream(pin)) {
+
+                        ZipEntry entry = in.getNextEntry();
+                        CRC32 crc = new CRC32();
+                        byte[] buffer = new byte[1024 * 1024];
+                        long size = 0;
+                        int count;
+                        while ((count = in.read(buffer)) != -1) {
+
+                            crc.update(buffer, 0, count);
+                            size += count;
+                        }
+                        long[] values = {entry.getMethod(), size, crc.getValue(), in.getNextEntry() != null ? 1 : 0, entry.getExtra() != null ? entry.getExtra().length : 0};
+
+                        // drain the central directory
+                        while (pin.read(buffer) != -1)
+                            continue;
+
+                        return values;
+                    }
+                }
+            });
+
+            ParallelZipWriter writer = new ParallelZipWriter(pout, 1, 4);
+            writer.addFile(big.getName(), big);
+            writer.addData("after", "after".getBytes(StandardCharsets.US_ASCII));
+            writer.finish();
+            pout.close();
+
+            return result.get();
+
+        } finally {
+
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void largeStoredEntriesUseZip64Sizes() throws Exception {
+
+        // stored because of its extension
+        File big = sparse("big.zip");
+        long[] values = zipLarge(big);
+        assertEquals(ZipEntry.STORED, values[0]);
+        assertEquals(LARGE_LENGTH, values[1]);
+        assertEquals(crc(big), values[2]);
+        assertEquals(1, values[3]);
+    }
+
+    @Test
+    public void largeDeflatedEntriesUseZip64Sizes() throws Exception {
+
+        // deflated because of its sparse content
+        File big = sparse("big.bin");
+        long[] values = zipLarge(big);
+        assertEquals(ZipEntry.DEFLATED, values[0]);
+        assertEquals(LARGE_LENGTH, values[1]);
+        assertEquals(crc(big), values[2]);
+        assertEquals(1, values[3]);
+
+        // the local header announces the 64 bits sizes of the data descriptor
+        assertEquals(20, values[4]);
+    }
+}
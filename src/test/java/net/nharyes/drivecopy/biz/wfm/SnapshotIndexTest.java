@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.biz.wfm;
+
+import net.nharyes.drivecopy.biz.exc.WorkflowManagerException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapshotIndexTest {
+
+    // configuration and tree directories
+    private File config;
+    private File tree;
+
+    // files digested by the last scan
+    private List<File> digested = new ArrayList<>();
+
+    private SnapshotIndex.Digester digester = new SnapshotIndex.Digester() {
+
+        public String digest(File f) throws WorkflowManagerException {
+
+            try {
+
+                digested.add(f);
+                return String.valueOf(Arrays.hashCode(Files.readAllBytes(f.toPath())));
+
+            } catch (IOException ex) {
+
+                throw new WorkflowManagerException(ex.getMessage(), ex);
+            }
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+
+        config = Files.createTempDirectory("drivecopy-config").toFile();
+        tree = Files.createTempDirectory("drivecopy-tree").toFile();
+    }
+
+    @After
+    public void tearDown() {
+
+        delete(config);
+        delete(tree);
+    }
+
+    private static void delete(File f) {
+
+        File[] files = f.listFiles();
+        if (files != null)
+            for (File fl : files)
+                delete(fl);
+        f.delete();
+    }
+
+    private File write(String name, String content, long lastModified) throws IOException {
+
+        File f = new File(tree, name);
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        f.setLastModified(lastModified);
+
+        return f;
+    }
+
+    private SnapshotIndex scan() throws IOException, WorkflowManagerException {
+
+        // each scan starts from the saved index
+        SnapshotIndex index = SnapshotIndex.open(config, "Backups/tree.zip");
+        digested.clear();
+        index.scan(tree, digester);
+        index.save();
+
+        return index;
+    }
+
+    @Test
+    public void firstScanAddsAllTheFiles() throws IOException, WorkflowManagerException {
+
+        File a = write("a.txt", "a", 1000000);
+        File b = write("sub/b.txt", "b", 1000000);
+
+        SnapshotIndex index = SnapshotIndex.open(config, "Backups/tree.zip");
+        assertFalse(index.exists());
+        index.scan(tree, digester);
+        index.save();
+
+        assertTrue(index.exists());
+        assertTrue(index.hasChanges());
+        assertEquals(2, index.getChangedFiles().size());
+        assertTrue(index.getChangedFiles().containsAll(Arrays.asList(a, b)));
+        assertTrue(index.getDeletedEntries().isEmpty());
+    }
+
+    @Test
+    public void unchangedFilesAreNotDigested() throws IOException, WorkflowManagerException {
+
+        write("a.txt", "a", 1000000);
+        scan();
+
+        SnapshotIndex index = scan();
+        assertFalse(index.hasChanges());
+        assertTrue(digested.isEmpty());
+    }
+
+    @Test
+    public void detectsAddedChangedAndDeletedFiles() throws IOException, WorkflowManagerException {
+
+        write("same.txt", "same", 1000000);
+        write("touched.txt", "touched", 1000000);
+        write("changed.txt", "changed", 1000000);
+        File deleted = write("sub/deleted.txt", "deleted", 1000000);
+        scan();
+
+        // touched keeps the content with a new modification time
+        write("touched.txt", "touched", 2000000);
+        File changed = write("changed.txt", "CHANGED", 3000000);
+        File added = write("sub/added.txt", "added", 1000000);
+        assertTrue(deleted.delete());
+
+        SnapshotIndex index = scan();
+        assertTrue(index.hasChanges());
+        Collections.sort(index.getChangedFiles());
+        assertEquals(Arrays.asList(changed, added), index.getChangedFiles());
+        assertEquals(Collections.singletonList("sub" + File.separator + "deleted.txt"), index.getDeletedEntries());
+        assertEquals(3, digested.size());
+
+        // the next scan starts from the new snapshot
+        index = scan();
+        assertFalse(index.hasChanges());
+    }
+
+    @Test
+    public void filesOfAFullSnapshotAreChangedOnlyIfTheirDigestDiffers() throws IOException, WorkflowManagerException {
+
+        write("a.txt", "a", 1000000);
+        SnapshotIndex index = SnapshotIndex.open(config, "Backups/tree.zip");
+        index.reset(tree);
+        index.save();
+        assertFalse(index.hasChanges());
+
+        // the digests are unknown after a reset
+        File a = write("a.txt", "a", 2000000);
+        index = scan();
+        assertEquals(Collections.singletonList(a), index.getChangedFiles());
+    }
+}
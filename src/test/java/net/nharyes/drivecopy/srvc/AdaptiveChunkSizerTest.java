@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveChunkSizerTest {
+
+    /*
+     * Constants
+     */
+    private static final int KB = 1024;
+    private static final int MB = 1024 * KB;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void boundsAreAlignedToTheMinimumChunkSize() {
+
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(300 * KB, 1000 * KB);
+
+        // 256 KB and 768 KB
+        sizer.update(1, SECOND * 1000);
+        assertEquals(256 * KB, sizer.getChunkSize());
+        for (int n = 0; n < 10; n++)
+            sizer.update(100 * MB, SECOND);
+        assertEquals(768 * KB, sizer.getChunkSize());
+    }
+
+    @Test
+    public void boundsSmallerThanTheMinimumChunkSizeAreRaised() {
+
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(1, 1);
+        assertEquals(256 * KB, sizer.getChunkSize());
+    }
+
+    @Test
+    public void initialSizeIsWithinBounds() {
+
+        assertEquals(10 * MB, new AdaptiveChunkSizer(256 * KB, 100 * MB).getChunkSize());
+        assertEquals(4 * MB, new AdaptiveChunkSizer(256 * KB, 4 * MB).getChunkSize());
+        assertEquals(20 * MB, new AdaptiveChunkSizer(20 * MB, 100 * MB).getChunkSize());
+    }
+
+    @Test
+    public void sizeChangesByAtMostAFactorOfTwo() {
+
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(256 * KB, 1024 * MB);
+
+        // very fast and very slow chunks
+        assertEquals(20 * MB, sizer.update(10 * MB, SECOND / 1000));
+        assertEquals(10 * MB, sizer.update(1, SECOND));
+    }
+
+    @Test
+    public void sizeConvergesToTheTargetTime() {
+
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(256 * KB, 1024 * MB);
+
+        // 1 MB/s takes 4 MB per chunk of 4 seconds
+        for (int n = 0; n < 10; n++)
+            sizer.update(sizer.getChunkSize(), sizer.getChunkSize() * SECOND / MB);
+        assertTrue(sizer.getChunkSize() >= 2 * MB && sizer.getChunkSize() <= 8 * MB);
+        assertEquals(0, sizer.getChunkSize() % (256 * KB));
+    }
+
+    @Test
+    public void emptyMeasuresAreIgnored() {
+
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(256 * KB, 100 * MB);
+        assertEquals(10 * MB, sizer.update(0, SECOND));
+        assertEquals(10 * MB, sizer.update(MB, 0));
+    }
+}
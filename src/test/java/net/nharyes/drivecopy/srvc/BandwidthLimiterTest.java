@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012-2016 Luca Zanconato
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.nharyes.drivecopy.srvc;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+public class BandwidthLimiterTest {
+
+    private static Calendar at(int dayOfWeek, int hour, int minute) {
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.DAY_OF_WEEK, dayOfWeek);
+        calendar.set(Calendar.HOUR_OF_DAY, hour);
+        calendar.set(Calendar.MINUTE, minute);
+
+        return calendar;
+    }
+
+    @Test
+    public void parsesEntriesForEveryDay() {
+
+        BandwidthLimiter.ScheduleEntry entry = BandwidthLimiter.ScheduleEntry.parse("09:00-18:30=1048576");
+        assertEquals(1048576, entry.getRate());
+        assertFalse(entry.matches(at(Calendar.SUNDAY, 8, 59)));
+        assertTrue(entry.matches(at(Calendar.SUNDAY, 9, 0)));
+        assertTrue(entry.matches(at(Calendar.WEDNESDAY, 18, 29)));
+        assertFalse(entry.matches(at(Calendar.WEDNESDAY, 18, 30)));
+    }
+
+    @Test
+    public void parsesDayRangesIgnoringCase() {
+
+        BandwidthLimiter.ScheduleEntry entry = BandwidthLimiter.ScheduleEntry.parse("Mon-FRI 09:00-18:00=0");
+        assertEquals(0, entry.getRate());
+        assertTrue(entry.matches(at(Calendar.MONDAY, 12, 0)));
+        assertTrue(entry.matches(at(Calendar.FRIDAY, 12, 0)));
+        assertFalse(entry.matches(at(Calendar.SATURDAY, 12, 0)));
+        assertFalse(entry.matches(at(Calendar.SUNDAY, 12, 0)));
+    }
+
+    @Test
+    public void parsesSingleDays() {
+
+        BandwidthLimiter.ScheduleEntry entry = BandwidthLimiter.ScheduleEntry.parse("sat 0:00-23:59=512");
+        assertTrue(entry.matches(at(Calendar.SATURDAY, 0, 0)));
+        assertFalse(entry.matches(at(Calendar.SUNDAY, 0, 0)));
+    }
+
+    @Test
+    public void windowsWrapAroundMidnightAndTheWeek() {
+
+        BandwidthLimiter.ScheduleEntry night = BandwidthLimiter.ScheduleEntry.parse("22:00-6:00=0");
+        assertTrue(night.matches(at(Calendar.TUESDAY, 23, 0)));
+        assertTrue(night.matches(at(Calendar.TUESDAY, 5, 59)));
+        assertFalse(night.matches(at(Calendar.TUESDAY, 6, 0)));
+
+        BandwidthLimiter.ScheduleEntry weekend = BandwidthLimiter.ScheduleEntry.parse("Sat-Sun 00:00-24:00=0");
+        assertTrue(weekend.matches(at(Calendar.SATURDAY, 10, 0)));
+        assertTrue(weekend.matches(at(Calendar.SUNDAY, 10, 0)));
+        assertFalse(weekend.matches(at(Calendar.MONDAY, 10, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedEntries() {
+
+        BandwidthLimiter.ScheduleEntry.parse("9-18=1024");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownDays() {
+
+        BandwidthLimiter.ScheduleEntry.parse("Mon-Fry 09:00-18:00=1024");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedConfiguration() {
+
+        PropertiesConfiguration config = new PropertiesConfiguration();
+        config.setProperty("uploadRateSchedule", "Mon 09:00=1024");
+        new BandwidthLimiter(config);
+    }
+
+    @Test
+    public void streamsAreNotThrottledWithoutCaps() {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertSame(out, new BandwidthLimiter(new PropertiesConfiguration()).throttleDownload(out));
+    }
+}